@@ -2,7 +2,11 @@ package com.wizardfight;
 
 import java.util.ArrayList;
 import com.wizardfight.accrecognizer.AccRecognizer;
+import com.wizardfight.components.GestureSegmenter;
+import com.wizardfight.components.Resampler;
+import com.wizardfight.components.SampleBuffer;
 import com.wizardfight.components.Vector3d;
+import com.wizardfight.recognition.Recognizer;
 
 import android.content.Context;
 import android.hardware.Sensor;
@@ -16,17 +20,36 @@ import android.os.Looper;
  * Thread that listens to accelerometer and gathers data 
  * when its needed. Also plays music
  */
-class AcceleratorThread extends Thread implements SensorEventListener {
+class AcceleratorThread extends Thread implements SensorEventListener,
+		Resampler.Listener {
 	private static final boolean D = false;
+	// longest gesture that is recorded
+	private static final int MAX_SAMPLES = 1000;
+	// gestures are resampled to the nominal rate of SENSOR_DELAY_GAME,
+	// the rate the recognition models were trained at
+	private static final long SAMPLE_PERIOD_NS = 20000000L;
+	// shorter detected gestures are taken for noise
+	private static final int MIN_GESTURE_SAMPLES = 11;
 	protected static boolean ORIENTATION_HORIZONTAL;
-	private boolean mListening;
+	// stop the cast when the hand stops moving, without a second touch
+	protected static volatile boolean AUTO_STOP = false;
+	private volatile boolean mListening;
 	
 	private Looper mLooper;
 	private final Context mContext;
 	private final SensorManager mSensorManager;
 	private final Handler mFightHandler;
 	private Sensor mAccelerometer;
-	private ArrayList<Vector3d> mRecords;
+	private final SampleBuffer mRecords = new SampleBuffer(MAX_SAMPLES);
+	private final Resampler mResampler = new Resampler(SAMPLE_PERIOD_NS, this);
+	private final GestureSegmenter mSegmenter = new GestureSegmenter();
+	// detected gesture bounds in mRecords, end is 0 until it starts
+	private volatile int mGestureStart;
+	private volatile int mGestureEnd;
+	private volatile boolean mGestureEnded;
+	// the gesture is fed to the HMM stream only if the cascade uses HMM
+	private volatile boolean mStreaming;
+	private Runnable mOnGestureEnd;
 
 	public AcceleratorThread(Context context, SensorManager sm, Handler fightHandler) {
 		setName("Sensor and Sound thread");
@@ -53,7 +76,15 @@ class AcceleratorThread extends Thread implements SensorEventListener {
 	}
 
 	public void startGettingData() {
-		mRecords = new ArrayList<Vector3d>();
+		mRecords.clear();
+		mResampler.reset();
+		mSegmenter.reset();
+		mGestureStart = 0;
+		mGestureEnd = 0;
+		mGestureEnded = false;
+		mStreaming = RecognitionCascade.usesHmm();
+		if (mStreaming)
+			Recognizer.startStream();
 		mListening = true;
 		if (!FightSound.isPlaying())
 			return;
@@ -70,7 +101,25 @@ class AcceleratorThread extends Thread implements SensorEventListener {
 		long t1 = System.currentTimeMillis();
 		mListening = false;
 		FightSound.stopWandSound();
-		return Vector3d.squeeze(mRecords, AccRecognizer.Speed.SLOW.size);
+		// cut the idle samples around the gesture if it was detected
+		int end = mGestureEnd;
+		int start = mGestureStart;
+		if (end - start < MIN_GESTURE_SAMPLES) {
+			return mRecords.toRecords(AccRecognizer.Speed.SLOW.size);
+		}
+		return mRecords.toRecords(start, end, AccRecognizer.Speed.SLOW.size);
+	}
+
+	/*
+	 * Runs r on the handler thread when the gesture end is detected
+	 * and AUTO_STOP is on
+	 */
+	public void setOnGestureEnd(Runnable r) {
+		mOnGestureEnd = r;
+	}
+
+	public boolean isGestureEnded() {
+		return mGestureEnded;
 	}
 
 	public void stopLoop() {
@@ -88,7 +137,7 @@ class AcceleratorThread extends Thread implements SensorEventListener {
 	public void onSensorChanged(SensorEvent event) {
 		if (!mListening)
 			return;
-		if (mRecords.size() > 1000)
+		if (mRecords.isFull())
 			return;
 		double x, y, z;
 		if (ORIENTATION_HORIZONTAL) {
@@ -101,8 +150,7 @@ class AcceleratorThread extends Thread implements SensorEventListener {
 			z = event.values[2];
 		}
 		double len = Math.sqrt(x * x + y * y + z * z);
-		Vector3d rec = new Vector3d(x, y, z);
-		mRecords.add(rec);
+		mResampler.push(event.timestamp, x, y, z);
 
 		float amplitude = (float) len / 10 + 0.1f;
 		if (amplitude > 1.0f)
@@ -110,4 +158,33 @@ class AcceleratorThread extends Thread implements SensorEventListener {
 		
 		FightSound.setWandVolume(amplitude);
 	}
+
+	@Override
+	public void onSample(long timestamp, double x, double y, double z) {
+		if (!mRecords.add(timestamp, x, y, z))
+			return;
+		if (mGestureEnded)
+			return;
+		boolean ended = mSegmenter.push(x, y, z);
+		if (!mSegmenter.hasStarted())
+			return;
+		// stream only the samples known to be a part of the gesture,
+		// the ones before its start are streamed once it is detected
+		int streamed = Math.max(mGestureEnd, mGestureStart);
+		mGestureStart = mSegmenter.getStart();
+		int end = mSegmenter.getEnd();
+		if (mStreaming) {
+			for (int i = Math.max(streamed, mGestureStart); i < end; i++) {
+				Recognizer.streamSample(mRecords.getX(i), mRecords.getY(i),
+						mRecords.getZ(i));
+			}
+		}
+		mGestureEnd = end;
+		if (ended) {
+			mGestureEnded = true;
+			if (AUTO_STOP && mOnGestureEnd != null) {
+				mFightHandler.post(mOnGestureEnd);
+			}
+		}
+	}
 }
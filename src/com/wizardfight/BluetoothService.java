@@ -3,6 +3,8 @@ package com.wizardfight;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 import com.wizardfight.FightActivity.AppMessage;
@@ -13,6 +15,7 @@ import android.bluetooth.BluetoothServerSocket;
 import android.bluetooth.BluetoothSocket;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
@@ -44,6 +47,12 @@ public class BluetoothService {
     public static final int STATE_CONNECTED = 3;  // now connected to a remote device
     // Describes player role in connection setup
     private static boolean mIsServer = false;
+    // Frames are a 2 byte payload length followed by the messages
+    // in FightMessageCodec format
+    private static final int FRAME_HEADER = 2;
+    private static final int MAX_FRAME_PAYLOAD = 1024;
+    // Runs the flushes of the messages written during one dispatch
+    private final Handler mFlushHandler = new Handler(Looper.getMainLooper());
     
     private static class InstanceHolder {
         private static final BluetoothService instance = new BluetoothService();
@@ -158,11 +167,13 @@ public class BluetoothService {
         setState(STATE_NONE);
     }
     /**
-     * Write to the ConnectedThread in an unsynchronized manner
-     * @param out The bytes to write
-     * @see ConnectedThread#write(byte[])
+     * Queue a message for the ConnectedThread. Messages written until
+     * the main thread finishes its current work (usually one handler
+     * dispatch) are coalesced and sent as a single frame.
+     * @param msg The message to send
+     * @see ConnectedThread#queue(FightMessage)
      */
-    public void write(byte[] out) {
+    public void write(FightMessage msg) {
         // Create temporary object
         ConnectedThread r;
         // Synchronize a copy of the ConnectedThread
@@ -171,7 +182,7 @@ public class BluetoothService {
             r = mConnectedThread;
         }
         // Perform the write unsynchronized
-        r.write(out);
+        r.queue(msg);
     }
     /**
      * Indicate that the connection attempt failed and notify the UI Activity.
@@ -343,6 +354,19 @@ public class BluetoothService {
         private final BluetoothSocket mmSocket;
         private final InputStream mmInStream;
         private final OutputStream mmOutStream;
+        // Each direction keeps its own codec state for this connection
+        private final FightMessageCodec mmEncoder = new FightMessageCodec();
+        private final FightMessageCodec mmDecoder = new FightMessageCodec();
+        // Messages written during one handler dispatch, sent as one frame
+        private final ByteBuffer mmPending =
+                ByteBuffer.allocate(FRAME_HEADER + MAX_FRAME_PAYLOAD);
+        private boolean mmIsFlushPosted = false;
+        private final Runnable mmFlush = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
         public ConnectedThread(BluetoothSocket socket) {
         	if (D) Log.d(TAG, "create ConnectedThread");
             mmSocket = socket;
@@ -357,20 +381,54 @@ public class BluetoothService {
             }
             mmInStream = tmpIn;
             mmOutStream = tmpOut;
+            mmPending.position(FRAME_HEADER);
         }
         public void run() {
         	if (D) Log.i(TAG, "BEGIN mConnectedThread");
             
-            int bytes;
+            // Reads may return parts of frames or several frames at once,
+            // unparsed bytes stay at the beginning of the buffer
+            byte[] buffer = new byte[2 * (FRAME_HEADER + MAX_FRAME_PAYLOAD)];
+            ByteBuffer frame = ByteBuffer.wrap(buffer);
+            int length = 0;
             // Keep listening to the InputStream while connected
 			while (true) {
 				try {
 					// Read from the InputStream
-					byte[] buffer = new byte[FightMessage.SIZE];
-					bytes = mmInStream.read(buffer);
-					// Send the obtained object to the UI Activity
-					sendMsgToHandler(AppMessage.MESSAGE_FROM_ENEMY.ordinal(),
-							bytes, -1, buffer);
+					int bytes = mmInStream.read(buffer, length, buffer.length - length);
+					if (bytes < 0) {
+						throw new IOException("end of stream");
+					}
+					length += bytes;
+					int start = 0;
+					while (length - start >= FRAME_HEADER) {
+						int payload = ((buffer[start] & 0xFF) << 8)
+								| (buffer[start + 1] & 0xFF);
+						if (payload > MAX_FRAME_PAYLOAD) {
+							throw new IOException("bad frame length " + payload);
+						}
+						if (length - start < FRAME_HEADER + payload) break;
+						start += FRAME_HEADER;
+						int end = start + payload;
+						frame.limit(end);
+						frame.position(start);
+						try {
+							while (frame.hasRemaining()) {
+								// The handler recycles the message
+								FightMessage message = mmDecoder.decode(frame);
+								// Send the obtained object to the UI Activity
+								if (message != null) {
+									sendMsgToHandler(AppMessage.MESSAGE_FROM_ENEMY.ordinal(),
+											-1, -1, message);
+								}
+							}
+						} catch (BufferUnderflowException e) {
+							throw new IOException("truncated message");
+						}
+						start = end;
+					}
+					length -= start;
+					System.arraycopy(buffer, start, buffer, 0, length);
 				} catch (IOException e) {
 					if (D) Log.e(TAG, "disconnected", e);
 					connectionLost();
@@ -378,13 +436,43 @@ public class BluetoothService {
 				}
 			}
         }
+        /**
+         * Encode a message into the pending frame
+         * and schedule sending of the frame
+         */
+        public void queue(FightMessage msg) {
+            synchronized (mmPending) {
+                if (mmPending.remaining() < FightMessageCodec.MAX_SIZE) {
+                    flush();
+                }
+                mmEncoder.encode(msg, mmPending);
+                if (!mmIsFlushPosted) {
+                    mmIsFlushPosted = true;
+                    mFlushHandler.post(mmFlush);
+                }
+            }
+        }
+        /**
+         * Send the pending frame to the connected OutStream
+         */
+        public void flush() {
+            synchronized (mmPending) {
+                mmIsFlushPosted = false;
+                int payload = mmPending.position() - FRAME_HEADER;
+                if (payload == 0) return;
+                mmPending.putShort(0, (short) payload);
+                write(mmPending.array(), mmPending.position());
+                mmPending.position(FRAME_HEADER);
+            }
+        }
         /**
          * Write to the connected OutStream.
-         * @param buffer  The bytes to wr	ite
+         * @param buffer  The bytes to write
+         * @param count  Number of bytes from the buffer start
          */
-        public void write(byte[] buffer) {
+        public void write(byte[] buffer, int count) {
             try {
-            	mmOutStream.write(buffer);
+            	mmOutStream.write(buffer, 0, count);
             } catch (IOException e) {
             	if (D) Log.e(TAG, "Exception during write", e);
             }
@@ -92,9 +92,8 @@ public class BtFightActivity extends FightActivity {
 			return;
 		}
 
-		byte[] send = fMessage.getBytes();
 		// send to 2nd phone
-		mBtService.write(send);
+		mBtService.write(fMessage);
 		// send to pc if connected
 		WifiService.send(fMessage);
 	}
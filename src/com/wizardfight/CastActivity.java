@@ -2,9 +2,7 @@ package com.wizardfight;
 
 import java.util.ArrayList;
 
-import com.wizardfight.accrecognizer.AccRecognition;
 import com.wizardfight.components.Vector3d;
-import com.wizardfight.recognition.Recognizer;
 
 import android.app.Activity;
 import android.content.Context;
@@ -36,9 +34,9 @@ public abstract class CastActivity extends Activity {
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setVolumeControlStream(AudioManager.STREAM_MUSIC);
-		// Init recognition resources
-		Recognizer.init(getResources());
-		AccRecognition.init(getResources());
+		// Init recognition resources (loaded once per process)
+		ModelCache.init(getResources());
+		RecognitionSettings.apply(this);
 		// Get sensors
 		mHandler = getHandler();
 	}
@@ -57,6 +55,12 @@ public abstract class CastActivity extends Activity {
 	protected  void startNewSensorAndSound(){
 			mAcceleratorThread = new AcceleratorThread(this, 
 					((SensorManager) getSystemService(Context.SENSOR_SERVICE)), mHandler);
+			mAcceleratorThread.setOnGestureEnd(new Runnable() {
+				@Override
+				public void run() {
+					onGestureEnd();
+				}
+			});
 			mAcceleratorThread.start();
 	}
 
@@ -68,6 +72,13 @@ public abstract class CastActivity extends Activity {
         stopSensorAndSound();
 	}
 
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		// results would come to a dead activity
+		RecognitionThread.cancel(mHandler);
+	}
+
 	protected abstract Handler getHandler();
 
 	protected void stopSensorAndSound() {
@@ -89,6 +100,19 @@ public abstract class CastActivity extends Activity {
 		}
 	}
 
+	/*
+	 * Ends the cast when the hand stops moving (AUTO_STOP mode).
+	 * The touch release that follows is then ignored.
+	 */
+	protected void onGestureEnd() {
+		if (!mIsInCast || mAcceleratorThread == null
+				|| !mAcceleratorThread.isGestureEnded())
+			return;
+		if (D) Log.e(TAG, "GESTURE END DETECTED");
+		mLastTouchAction = MotionEvent.ACTION_UP;
+		buttonClick();
+	}
+
 	protected void buttonClick() {
 		if (mIsCastAbilityBlocked)
 			return;
@@ -108,7 +132,7 @@ public abstract class CastActivity extends Activity {
 			mIsInCast = false;
 
 			if (records.size() > 10) {
-				new RecognitionThread(mHandler, records).start();
+				RecognitionThread.recognize(mHandler, records);
 			} else {
 				// if shord record - don`t recognize & unblock
 				mIsCastAbilityBlocked = false;
@@ -118,6 +118,15 @@ public abstract class FightActivity extends CastActivity {
         mIsRunning = false;
     }
 
+    @Override
+    protected void onGestureEnd() {
+        boolean wasInCast = mIsInCast;
+        super.onGestureEnd();
+        if (wasInCast && !mIsInCast) {
+            mBgImage.toDark();
+        }
+    }
+
     @Override
     public void onDestroy() {
     	if (D) Log.e(TAG, "--- ON DESTROY FIGHT ACTIVITY ---");
@@ -139,7 +148,7 @@ public abstract class FightActivity extends CastActivity {
 
             @Override
             public void handleMessage(Message msg) {
-                AppMessage appMsg = AppMessage.values()[msg.what];
+                AppMessage appMsg = AppMessage.fromOrdinal(msg.what);
 
                 switch (appMsg) {
                     case MESSAGE_STATE_CHANGE:
@@ -166,18 +175,20 @@ public abstract class FightActivity extends CastActivity {
                         finish();
                         break;
                     case MESSAGE_FROM_SELF:
-                        if (mAreMessagesBlocked) return;
                         FightMessage selfMsg = (FightMessage) msg.obj;
-                        handleSelfMessage(selfMsg);
+                        if (!mAreMessagesBlocked) {
+                            handleSelfMessage(selfMsg);
+                        }
+                        selfMsg.recycle();
                         break;
                     case MESSAGE_SELF_DEATH:
-                        FightMessage selfDeath = new FightMessage(Target.ENEMY,
+                        FightMessage selfDeath = FightMessage.obtain(Target.ENEMY,
                                 FightAction.FIGHT_END);
                         sendFightMessage(selfDeath);
+                        selfDeath.recycle();
                         break;
                     case MESSAGE_FROM_ENEMY:
-                        byte[] recvBytes = (byte[]) msg.obj;
-                        FightMessage enemyMsg = FightMessage.fromBytes(recvBytes);
+                        FightMessage enemyMsg = (FightMessage) msg.obj;
 
                         switch (enemyMsg.mAction) {
                             case ENEMY_READY:
@@ -190,9 +201,11 @@ public abstract class FightActivity extends CastActivity {
                                 finishFight(Target.SELF);
                                 break;
                             default:
-                                if (mAreMessagesBlocked) return;
-                                handleEnemyMessage(enemyMsg);
+                                if (!mAreMessagesBlocked) {
+                                    handleEnemyMessage(enemyMsg);
+                                }
                         }
+                        enemyMsg.recycle();
                         break;
                     case MESSAGE_MANA_REGEN:
                         handleManaRegen();
@@ -206,9 +219,10 @@ public abstract class FightActivity extends CastActivity {
             	mSelfState.manaTick();
                 mSelfGUI.getManaBar().setValue(mSelfState.getMana());
                 // inform enemy about new mana
-                FightMessage fMsg = new FightMessage(Target.ENEMY,
+                FightMessage fMsg = FightMessage.obtain(Target.ENEMY,
                         FightAction.NEW_HP_OR_MANA, Shape.NONE.ordinal());
                 sendFightMessage(fMsg);
+                fMsg.recycle();
                 // send next tick after 2 sec
                 Message msgManaReg = this.obtainMessage(
                         AppMessage.MESSAGE_MANA_REGEN.ordinal(), 0, 0, null);
@@ -299,9 +313,10 @@ public abstract class FightActivity extends CastActivity {
                 if (removedBuff != null) {
                     // buff was removed after spell,
                     // send message about buff loss to enemy
-                    sendMsg = new FightMessage(Target.ENEMY, FightAction.BUFF_OFF,
+                    sendMsg = FightMessage.obtain(Target.ENEMY, FightAction.BUFF_OFF,
                             removedBuff.ordinal());
                     sendFightMessage(sendMsg);
+                    sendMsg.recycle();
                     // remove buff from panel
                     mSelfGUI.getBuffPanel().removeBuff(removedBuff);
                     if (mSelfState.isBuffRemovedByEnemy()) {
@@ -313,9 +328,10 @@ public abstract class FightActivity extends CastActivity {
                     // buff added to player after spell (for example
                     // DoT, HoT, or shield),
                     // send message about enemy buff success
-                    sendMsg = new FightMessage(Target.ENEMY, FightAction.BUFF_ON,
+                    sendMsg = FightMessage.obtain(Target.ENEMY, FightAction.BUFF_ON,
                             addedBuff.ordinal());
                     sendFightMessage(sendMsg);
+                    sendMsg.recycle();
                     // add buff to panel
                     mSelfGUI.getBuffPanel().addBuff(addedBuff);
                 }
@@ -324,7 +340,7 @@ public abstract class FightActivity extends CastActivity {
                     // send message of the buff tick
                     if (addedBuff != null)
                         refreshedBuff = addedBuff;
-                    FightMessage fm = new FightMessage(Target.SELF,
+                    FightMessage fm = FightMessage.obtain(Target.SELF,
                             FightAction.BUFF_TICK, refreshedBuff.ordinal());
                     Message buffTickMsg = this.obtainMessage(
                             AppMessage.MESSAGE_FROM_SELF.ordinal(), fm);
@@ -334,9 +350,10 @@ public abstract class FightActivity extends CastActivity {
 
                 if (addedBuff == null && removedBuff == null) {
                     // nothing with buffs => just send self hp and mana to enemy
-                    sendMsg = new FightMessage(Target.ENEMY,
+                    sendMsg = FightMessage.obtain(Target.ENEMY,
                             FightAction.NEW_HP_OR_MANA, spellShape.ordinal());
                     sendFightMessage(sendMsg);
+                    sendMsg.recycle();
                 }
 
                 mSelfGUI.getHealthBar().setValue(mSelfState.getHealth());
@@ -442,7 +459,14 @@ public abstract class FightActivity extends CastActivity {
 
     // Message types sent from the BluetoothChatService Handler
     enum AppMessage {
-        MESSAGE_STATE_CHANGE, MESSAGE_READ, MESSAGE_WRITE, MESSAGE_DEVICE_NAME, MESSAGE_TOAST, MESSAGE_COUNTDOWN_END, MESSAGE_CONNECTION_FAIL, MESSAGE_FROM_SELF, MESSAGE_SELF_DEATH, MESSAGE_FROM_ENEMY, MESSAGE_MANA_REGEN
+        MESSAGE_STATE_CHANGE, MESSAGE_READ, MESSAGE_WRITE, MESSAGE_DEVICE_NAME, MESSAGE_TOAST, MESSAGE_COUNTDOWN_END, MESSAGE_CONNECTION_FAIL, MESSAGE_FROM_SELF, MESSAGE_SELF_DEATH, MESSAGE_FROM_ENEMY, MESSAGE_MANA_REGEN;
+
+        // values() makes a copy on every call
+        private static final AppMessage[] sValues = values();
+
+        static AppMessage fromOrdinal(int ordinal) {
+            return sValues[ordinal];
+        }
     }
 
     abstract class FightEndDialog implements DialogInterface.OnClickListener {
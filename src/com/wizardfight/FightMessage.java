@@ -7,8 +7,9 @@ import java.io.Serializable;
  */
 public class FightMessage implements Serializable {
 	private static final long serialVersionUID = 160794200294L;
+	private static final Buff[] BUFFS = Buff.values();
+	private static final Shape[] SHAPES = Shape.values();
 	
-	public static final int SIZE = 9;
 	public Target mTarget;
 	public FightAction mAction;
 	public int mParam;
@@ -18,64 +19,135 @@ public class FightMessage implements Serializable {
 	public boolean mIsBotMessage;
 	
 	public FightMessage(Target tar, FightAction act) {
-		mTarget = tar;
-		mAction = act;
-		mParam = -1;
+		this(tar, act, -1);
 	}
 	
 	public FightMessage(Target tar, FightAction act, int parameter) {
+		set(tar, act, parameter);
+	}
+	
+	public FightMessage(Shape shape) {
+		setShape(shape);
+	}
+	
+	private FightMessage() {
+	}
+	
+	/*
+	 * Messages are recycled like android.os.Message. A message passed
+	 * through a handler belongs to the receiver, which recycles it after
+	 * handling. sendFightMessage methods and BluetoothService.write
+	 * do not keep the message, the caller recycles it.
+	 */
+	private static final int MAX_POOL_SIZE = 16;
+	private static final Object sPoolSync = new Object();
+	private static FightMessage sPool;
+	private static int sPoolSize = 0;
+	private transient FightMessage mNext;
+	private transient boolean mIsInPool;
+	
+	/*
+	 * Returns a message from the pool, its fields are to be set
+	 */
+	public static FightMessage obtain() {
+		synchronized (sPoolSync) {
+			if (sPool != null) {
+				FightMessage m = sPool;
+				sPool = m.mNext;
+				m.mNext = null;
+				m.mIsInPool = false;
+				sPoolSize--;
+				return m;
+			}
+		}
+		return new FightMessage();
+	}
+	
+	public static FightMessage obtain(Target tar, FightAction act) {
+		return obtain(tar, act, -1);
+	}
+	
+	public static FightMessage obtain(Target tar, FightAction act, int parameter) {
+		FightMessage m = obtain();
+		m.set(tar, act, parameter);
+		return m;
+	}
+	
+	public static FightMessage obtain(Shape shape) {
+		FightMessage m = obtain();
+		m.setShape(shape);
+		return m;
+	}
+	
+	public static FightMessage obtain(FightMessage orig) {
+		FightMessage m = obtain();
+		m.set(orig.mTarget, orig.mAction, orig.mParam);
+		m.mHealth = orig.mHealth;
+		m.mMana = orig.mMana;
+		m.mIsBotMessage = orig.mIsBotMessage;
+		return m;
+	}
+	
+	/*
+	 * Returns the message to the pool, it must not be used after that
+	 */
+	public void recycle() {
+		synchronized (sPoolSync) {
+			if (mIsInPool) return;
+			mTarget = null;
+			mAction = null;
+			if (sPoolSize < MAX_POOL_SIZE) {
+				mIsInPool = true;
+				mNext = sPool;
+				sPool = this;
+				sPoolSize++;
+			}
+		}
+	}
+	
+	void set(Target tar, FightAction act, int parameter) {
 		mTarget = tar;
 		mAction = act;
 		mParam = parameter;
+		mHealth = 0;
+		mMana = 0;
+		mIsBotMessage = false;
 	}
 	
-	public FightMessage(Shape shape) {
-		mParam = -1;
+	private void setShape(Shape shape) {
+		int param = -1;
+		Target target;
 		
 		switch(shape) {
 		case TRIANGLE:
 		case CIRCLE:
-			mTarget = Target.ENEMY;
+			target = Target.ENEMY;
 			break;
 		case CLOCK:
-			mTarget = Target.SELF;
-			mParam = Buff.getBuffFromShape(shape).ordinal();
+			target = Target.SELF;
+			param = Buff.getBuffFromShape(shape).ordinal();
 			break;
 		case Z:
-			mTarget = Target.ENEMY;
-			mParam = Buff.getBuffFromShape(shape).ordinal();
+			target = Target.ENEMY;
+			param = Buff.getBuffFromShape(shape).ordinal();
 			break;
 		case V:
-			mTarget = Target.SELF;
-			mParam = Buff.getBuffFromShape(shape).ordinal();
+			target = Target.SELF;
+			param = Buff.getBuffFromShape(shape).ordinal();
 			break;
 		case PI:
-			mTarget = Target.SELF;
-			mParam = Buff.getBuffFromShape(shape).ordinal();
+			target = Target.SELF;
+			param = Buff.getBuffFromShape(shape).ordinal();
 			break;
 		case SHIELD:
-			mTarget = Target.SELF;
-			mParam = Buff.getBuffFromShape(shape).ordinal();
+			target = Target.SELF;
+			param = Buff.getBuffFromShape(shape).ordinal();
 			break;
 		default:
-			mTarget = Target.SELF;
+			target = Target.SELF;
 			break;
 		}
-		mAction = getActionFromShape(shape);
-		
-	}
-	
-	private FightMessage(int targetIndex, int actionIndex, int parameter) {
-		mTarget = Target.values()[ targetIndex ];
-		mAction = FightAction.values() [ actionIndex ];
-		mParam = parameter;
-	}
-	
-	private FightMessage(int targetIndex, int actionIndex, int parameter, int hp, int mp, boolean isBot) {
-		this(targetIndex, actionIndex, parameter);
-		mHealth = hp;
-		mMana = mp;
-		mIsBotMessage = isBot;
+		set(target, getActionFromShape(shape), param);
 	}
 	
 	public static Shape getShapeFromMessage(FightMessage message) {
@@ -88,7 +160,7 @@ public class FightMessage implements Serializable {
 			shape = Shape.TRIANGLE;
 			break;
 		case BUFF_ON:
-			Buff buff = Buff.values()[ message.mParam  ];
+			Buff buff = BUFFS[ message.mParam ];
 			switch(buff) {
 			case WEAKNESS:
 				shape = Shape.Z;
@@ -111,7 +183,7 @@ public class FightMessage implements Serializable {
 			break;
 		case NEW_HP_OR_MANA:
 			if(message.mParam >= 0)
-				shape = Shape.values()[ message.mParam ];
+				shape = SHAPES[ message.mParam ];
 			break;
 		case FAIL:
 			shape = Shape.FAIL;
@@ -153,7 +225,7 @@ public class FightMessage implements Serializable {
 		boolean spellDealsDamage = true;
 		switch(msg.mAction) {
 		case BUFF_ON:
-			Buff buff = Buff.values()[ msg.mParam ];
+			Buff buff = BUFFS[ msg.mParam ];
 			switch(buff) {
 			case BLESSING:
 			case CONCENTRATION:
@@ -174,7 +246,7 @@ public class FightMessage implements Serializable {
 			spellDealsDamage = false;
 			break;
 		case NEW_HP_OR_MANA:
-			Shape s = Shape.values()[ msg.mParam ];
+			Shape s = SHAPES[ msg.mParam ];
 			FightAction a = FightMessage.getActionFromShape(s);
 			spellDealsDamage = ( a != FightAction.HEAL && a != FightAction.FAIL);
 			break;
@@ -189,39 +261,6 @@ public class FightMessage implements Serializable {
 		return (spellDealsDamage != (msg.mTarget == Target.ENEMY));
 	}
 
-	public static FightMessage fromBytes(byte[] bytes) {
-		int c = 0;
-		
-		int targetIndex = (int)bytes[ c++ ];
-		int actionIndex = (int)bytes[ c++ ];
-		int par = ((int)bytes[ c++ ] << 8) | ((int)bytes[ c++ ] & 0xFF);//todo
-		int hp = ((int)bytes[ c++ ] << 8) | ((int)bytes[ c++ ] & 0xFF);
-		int mp = ((int)bytes[ c++ ] << 8) | ((int)bytes[ c++ ] & 0xFF);
-		boolean isBot = ( bytes[ c ] == (byte)1 );
-		
-		return new FightMessage(targetIndex, actionIndex, par, hp, mp, isBot);
-	}
-	
-	public byte[] getBytes() {
-		byte[] b = new byte[SIZE];
-		int c = 0;
-		
-		b[ c++ ] = (byte) mTarget.ordinal();
-		b[ c++ ] = (byte) mAction.ordinal();
-		b[ c++ ] = (byte) ((mParam >> 8) & 0xFF); //high byte
-		b[ c++ ] = (byte) (mParam & 0xFF);        //low byte
-		
-		b[ c++ ] = (byte) ((mHealth >> 8) & 0xFF); //high byte
-		b[ c++ ] = (byte) (mHealth & 0xFF);        //low byte
-		
-		b[ c++ ] = (byte) ((mMana >> 8) & 0xFF); //high byte
-		b[ c++ ] = (byte) (mMana & 0xFF);        //low byte
-		
-		b[ c++ ] = (mIsBotMessage) ? (byte)1 : (byte)0;
-		
-		return b;
-	}
-	
 	@Override 
 	public String toString() {
 		return mTarget + " " + mAction + " " + mParam + " " + mHealth + " " + mMana + " " + mIsBotMessage;
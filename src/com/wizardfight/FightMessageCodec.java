@@ -0,0 +1,156 @@
+package com.wizardfight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.wizardfight.FightMessage.FightAction;
+import com.wizardfight.FightMessage.Target;
+
+/*
+ * Compact wire format of fight messages. A message is a header byte
+ * followed by varint fields:
+ *
+ *   header   bits 7-6 version, 5 extension, 4 bot message,
+ *            3 target is enemy, 2 mana, 1 health, 0 parameter
+ *   action   varint, ordinal of FightAction
+ *   param    zigzag varint, if the parameter flag is set (absent = -1)
+ *   health   zigzag varint, if the health flag is set
+ *   mana     zigzag varint, if the mana flag is set
+ *   ext      varint length and bytes, if the extension flag is set.
+ *            Skipped by this version, left for future fields.
+ *
+ * Health and mana are sent only when they differ from the last values
+ * sent on the connection; the decoder fills in the ones it got last.
+ * The transport must be reliable and ordered, so every message sent
+ * is also received. One codec instance keeps the state of one
+ * direction and is reset for every new connection.
+ */
+public class FightMessageCodec {
+	public static final int VERSION = 1;
+	// longest encoded message without extension
+	public static final int MAX_SIZE = 1 + 4 * 5;
+
+	private static final int FLAG_PARAM = 1;
+	private static final int FLAG_HEALTH = 1 << 1;
+	private static final int FLAG_MANA = 1 << 2;
+	private static final int FLAG_ENEMY = 1 << 3;
+	private static final int FLAG_BOT = 1 << 4;
+	private static final int FLAG_EXTENSION = 1 << 5;
+	private static final int VERSION_SHIFT = 6;
+	// values() makes a copy on every call
+	private static final FightAction[] ACTIONS = FightAction.values();
+
+	private boolean mHasState;
+	private int mHealth;
+	private int mMana;
+
+	public void reset() {
+		mHasState = false;
+	}
+
+	public void encode(FightMessage msg, ByteBuffer out) {
+		int header = VERSION << VERSION_SHIFT;
+		if (msg.mParam != -1) header |= FLAG_PARAM;
+		boolean sendHealth = !mHasState || msg.mHealth != mHealth;
+		boolean sendMana = !mHasState || msg.mMana != mMana;
+		if (sendHealth) header |= FLAG_HEALTH;
+		if (sendMana) header |= FLAG_MANA;
+		if (msg.mTarget == Target.ENEMY) header |= FLAG_ENEMY;
+		if (msg.mIsBotMessage) header |= FLAG_BOT;
+
+		out.put((byte) header);
+		putVarint(out, msg.mAction.ordinal());
+		if (msg.mParam != -1) putVarint(out, zigzag(msg.mParam));
+		if (sendHealth) putVarint(out, zigzag(msg.mHealth));
+		if (sendMana) putVarint(out, zigzag(msg.mMana));
+
+		mHasState = true;
+		mHealth = msg.mHealth;
+		mMana = msg.mMana;
+	}
+
+	/*
+	 * Decodes the next message of the buffer into msg. Returns false
+	 * for a message with an action this version does not know, it
+	 * should be skipped.
+	 */
+	public boolean decode(ByteBuffer in, FightMessage msg) throws IOException {
+		int header = in.get() & 0xFF;
+		int version = header >>> VERSION_SHIFT;
+		if (version != VERSION) {
+			throw new IOException("unsupported message version " + version);
+		}
+		int action = getVarint(in);
+		int param = ((header & FLAG_PARAM) != 0) ? unzigzag(getVarint(in)) : -1;
+		if ((header & FLAG_HEALTH) != 0) {
+			mHealth = unzigzag(getVarint(in));
+		} else if (!mHasState) {
+			throw new IOException("health was never sent");
+		}
+		if ((header & FLAG_MANA) != 0) {
+			mMana = unzigzag(getVarint(in));
+		} else if (!mHasState) {
+			throw new IOException("mana was never sent");
+		}
+		mHasState = true;
+		if ((header & FLAG_EXTENSION) != 0) {
+			int length = getVarint(in);
+			if (length < 0 || length > in.remaining()) {
+				throw new IOException("truncated extension");
+			}
+			in.position(in.position() + length);
+		}
+		if (action < 0 || action >= ACTIONS.length) {
+			return false;
+		}
+
+		Target target = ((header & FLAG_ENEMY) != 0) ? Target.ENEMY : Target.SELF;
+		msg.set(target, ACTIONS[ action ], param);
+		msg.mHealth = mHealth;
+		msg.mMana = mMana;
+		msg.mIsBotMessage = (header & FLAG_BOT) != 0;
+		return true;
+	}
+
+	/*
+	 * Decodes the next message into a message from the pool.
+	 * Returns null for a message with an unknown action.
+	 */
+	public FightMessage decode(ByteBuffer in) throws IOException {
+		FightMessage msg = FightMessage.obtain();
+		try {
+			if (decode(in, msg)) return msg;
+		} catch (IOException e) {
+			msg.recycle();
+			throw e;
+		}
+		msg.recycle();
+		return null;
+	}
+
+	private static int zigzag(int v) {
+		return (v << 1) ^ (v >> 31);
+	}
+
+	private static int unzigzag(int v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static void putVarint(ByteBuffer out, int v) {
+		while ((v & ~0x7F) != 0) {
+			out.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.put((byte) v);
+	}
+
+	private static int getVarint(ByteBuffer in) throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.get();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return v;
+		}
+		throw new IOException("malformed varint");
+	}
+}
@@ -77,6 +77,8 @@ public class MainMenu extends Activity {
 				FightSound.init(getApplicationContext());
 			}
 		}.start();
+		// load recognition models before the first cast
+		ModelCache.preload(this);
 
 		
 		// volume buttons control multimedia volume
@@ -0,0 +1,71 @@
+package com.wizardfight;
+
+import com.wizardfight.accrecognizer.AccRecognition;
+import com.wizardfight.recognition.Recognizer;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+/*
+ * Loads recognition models once per process. Models never change,
+ * so every activity after the first one gets the already loaded ones.
+ */
+public class ModelCache {
+	private static final boolean D = false;
+	private static boolean mLoaded = false;
+	private static long mInitTime;
+	private static int mHits;
+	private static int mMisses;
+
+	/*
+	 * Loads the models unless they are loaded already.
+	 * Blocks while another thread is loading them.
+	 */
+	public static synchronized void init(Resources res) {
+		if (mLoaded) {
+			mHits++;
+			return;
+		}
+		mMisses++;
+		long t1 = System.currentTimeMillis();
+		Recognizer.init(res);
+		AccRecognition.init(res);
+		mInitTime = System.currentTimeMillis() - t1;
+		mLoaded = true;
+		if (D) Log.e("ModelCache", "models loaded in " + mInitTime + " ms");
+		// compile the recognition code before the first cast
+		RecognitionThread.warmUp();
+	}
+
+	/*
+	 * Starts loading the models in background
+	 */
+	public static void preload(final Context context) {
+		new Thread(){
+			@Override
+			public void run() {
+				init(context.getApplicationContext().getResources());
+			}
+		}.start();
+	}
+
+	public static synchronized boolean isLoaded() {
+		return mLoaded;
+	}
+
+	/*
+	 * Time spent loading the models, ms
+	 */
+	public static synchronized long getInitTime() {
+		return mInitTime;
+	}
+
+	public static synchronized int getHits() {
+		return mHits;
+	}
+
+	public static synchronized int getMisses() {
+		return mMisses;
+	}
+}
@@ -54,16 +54,18 @@ class PlayerBot extends Thread {
 
             @Override
             public void handleMessage(Message msg) {
-                AppMessage appMsg = AppMessage.values()[msg.what];
+                AppMessage appMsg = AppMessage.fromOrdinal(msg.what);
 
                 switch (appMsg) {
                     case MESSAGE_FROM_SELF:
                         FightMessage selfMsg = (FightMessage) msg.obj;
                         handleSelfMessage(selfMsg);
+                        selfMsg.recycle();
                         break;
                     case MESSAGE_SELF_DEATH:
-                        FightMessage selfDeath = new FightMessage(Target.ENEMY, FightAction.FIGHT_END);
+                        FightMessage selfDeath = FightMessage.obtain(Target.ENEMY, FightAction.FIGHT_END);
                         sendFightMessage(selfDeath);
+                        selfDeath.recycle();
                         break;
                     case MESSAGE_FROM_ENEMY:
                         // message from main thread are coming as FightMessage objects
@@ -78,13 +80,15 @@ class PlayerBot extends Thread {
                             default:
                                 handleEnemyMessage(enemyMsg);
                         }
+                        enemyMsg.recycle();
                         break;
                     case MESSAGE_MANA_REGEN:
                         mSelfState.manaTick();
                         // inform enemy about new mana
-                        FightMessage fMsg = new FightMessage(Target.ENEMY,
+                        FightMessage fMsg = FightMessage.obtain(Target.ENEMY,
                                 FightAction.NEW_HP_OR_MANA, Shape.NONE.ordinal());
                         sendFightMessage(fMsg);
+                        fMsg.recycle();
                         // send next tick after 2 sec
                         Message msgManaReg = this.obtainMessage(
                                 AppMessage.MESSAGE_MANA_REGEN.ordinal(), 0, 0, null);
@@ -99,7 +103,7 @@ class PlayerBot extends Thread {
             private void attack() {
             	if (D) Log.e(TAG, "bot: " + shape.toString());
                 if (shape != Shape.NONE) {
-                    FightMessage selfMsg = new FightMessage(shape);
+                    FightMessage selfMsg = FightMessage.obtain(shape);
                     boolean canBeCasted = mSelfState.requestSpell(selfMsg);
                     if (canBeCasted) {
                         if (selfMsg.mTarget == Target.SELF) {
@@ -109,6 +113,7 @@ class PlayerBot extends Thread {
                             sendFightMessage(selfMsg);
                         }
                     }
+                    selfMsg.recycle();
                 }
                 shape = Shape.NONE;
                 if ((!mSelfState.hasBuff(Buff.CONCENTRATION))
@@ -199,25 +204,27 @@ class PlayerBot extends Thread {
                 if (removedBuff != null) {
                     // buff was removed after spell,
                     // send message about buff loss to enemy
-                    sendMsg = new FightMessage(Target.ENEMY, FightAction.BUFF_OFF,
+                    sendMsg = FightMessage.obtain(Target.ENEMY, FightAction.BUFF_OFF,
                             removedBuff.ordinal());
                     sendFightMessage(sendMsg);
+                    sendMsg.recycle();
                 }
 
                 if (addedBuff != null) {
                     // buff added to player after spell (for example
                     // DoT, HoT, or shield),
                     // send message about enemy buff success
-                    sendMsg = new FightMessage(Target.ENEMY, FightAction.BUFF_ON,
+                    sendMsg = FightMessage.obtain(Target.ENEMY, FightAction.BUFF_ON,
                             addedBuff.ordinal());
                     sendFightMessage(sendMsg);
+                    sendMsg.recycle();
                 }
 
                 if (addedBuff != null || refreshedBuff != null) {
                     // send message of the buff tick
                     if (addedBuff != null)
                         refreshedBuff = addedBuff;
-                    FightMessage fm = new FightMessage(Target.SELF,
+                    FightMessage fm = FightMessage.obtain(Target.SELF,
                             FightAction.BUFF_TICK, refreshedBuff.ordinal());
                     Message buffTickMsg = this.obtainMessage(
                             AppMessage.MESSAGE_FROM_SELF.ordinal(), fm);
@@ -227,9 +234,10 @@ class PlayerBot extends Thread {
 
                 if (addedBuff == null && removedBuff == null) {
                     // nothing with buffs => just send self hp and mana to enemy
-                    sendMsg = new FightMessage(Target.ENEMY,
+                    sendMsg = FightMessage.obtain(Target.ENEMY,
                             FightAction.NEW_HP_OR_MANA, spellShape.ordinal());
                     sendFightMessage(sendMsg);
+                    sendMsg.recycle();
                 }
             }
 
@@ -301,8 +309,8 @@ class PlayerBot extends Thread {
         // send to pc if connected
         WifiService.send(msg);
         
-        byte[] sendBytes = msg.getBytes();
-        mMainHandler.obtainMessage(AppMessage.MESSAGE_FROM_ENEMY.ordinal(), sendBytes)
-                .sendToTarget();
+        // the main thread gets its own copy, msg stays with the caller
+        mMainHandler.obtainMessage(AppMessage.MESSAGE_FROM_ENEMY.ordinal(),
+                FightMessage.obtain(msg)).sendToTarget();
     }
 }
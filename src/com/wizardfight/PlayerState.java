@@ -23,6 +23,7 @@ class BuffState {
  */
 public class PlayerState {
     private static final boolean D = false;
+    private static final Buff[] BUFFS = Buff.values();
     private final int mMaxHealth;
     private final int mMaxMana;
     private final EnumMap<Buff, BuffState> mBuffs;
@@ -102,14 +103,14 @@ public class PlayerState {
             case BUFF_ON:
                 if (message.mParam < 0) break;
                 // message parameter is buff index
-                Buff newBuff = Buff.values()[message.mParam];
+                Buff newBuff = BUFFS[message.mParam];
                 addBuff(newBuff);
                 break;
 
             case BUFF_TICK:
                 if (message.mParam < 0) break;
                 // message parameter is buff index
-                Buff tickBuff = Buff.values()[message.mParam];
+                Buff tickBuff = BUFFS[message.mParam];
                 boolean hasEffect = handleBuffTick(tickBuff, (message.mTarget == Target.SELF));
                 if(!hasEffect) break;
                 // apply player state changes
@@ -130,7 +131,7 @@ public class PlayerState {
                 break;
 
             case BUFF_OFF:
-                Buff delBuff = Buff.values()[message.mParam];
+                Buff delBuff = BUFFS[message.mParam];
                 mBuffs.remove(delBuff);
                 mRemovedBuff = delBuff;
                 if (D) Log.e("Wizard Fight", delBuff + "was removed");
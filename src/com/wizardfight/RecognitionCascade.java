@@ -0,0 +1,294 @@
+package com.wizardfight;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.wizardfight.accrecognizer.AccRecognition;
+import com.wizardfight.accrecognizer.AccResult;
+import com.wizardfight.components.Vector3d;
+import com.wizardfight.recognition.Recognizer;
+
+import android.util.Log;
+
+/*
+ * Combines the recognition engines. A confident answer of an engine is
+ * taken as it is and the rest are not waited for. Otherwise all engines
+ * have to agree on the shape, else the cast fails.
+ */
+class RecognitionCascade {
+	private final static boolean D = false;
+
+	public enum Engine {
+		// always confident, unless the density check is on: then only
+		// if the recognized shape is far from the others
+		ACC {
+			@Override
+			Stage run(ArrayList<Vector3d> records) {
+				if (!sDensityCheck) {
+					// density is not needed, templates may be abandoned early
+					return new Stage(this, toShape(AccRecognition.recognizeShape(records)), true);
+				}
+				AccResult result = AccRecognition.recognize(records);
+				return new Stage(this, toShape(result.getShape()), result.isGoodDensity());
+			}
+		},
+		// has no confidence measure, only confirms the other engines
+		HMM {
+			@Override
+			Stage run(ArrayList<Vector3d> records) {
+				return new Stage(this, Recognizer.recognize(records), false);
+			}
+		};
+
+		abstract Stage run(ArrayList<Vector3d> records);
+
+		private static Shape toShape(String name) {
+			try {
+				return Shape.valueOf(name.toUpperCase());
+			} catch (Exception e) {
+				return Shape.FAIL;
+			}
+		}
+	}
+
+	public enum Mode {
+		SEQUENTIAL, // next engine starts if the previous one is not confident
+		CONCURRENT  // all engines start at once, the rest are cancelled
+	}
+
+	/*
+	 * Answer of one engine
+	 */
+	static class Stage {
+		final Engine engine;
+		final Shape shape;
+		final boolean confident;
+		long time; // ns
+
+		Stage(Engine engine, Shape shape, boolean confident) {
+			this.engine = engine;
+			this.shape = shape;
+			this.confident = confident;
+		}
+	}
+
+	/*
+	 * Shape chosen by the cascade and the latency of every engine,
+	 * -1 for engines that were not run or were cancelled
+	 */
+	static class Result {
+		private final Shape shape;
+		private final Engine[] order;
+		private final long[] times;
+
+		private Result(Shape shape, Engine[] order, long[] times) {
+			this.shape = shape;
+			this.order = order;
+			this.times = times;
+		}
+
+		public Shape getShape() {
+			return shape;
+		}
+
+		public int getNumStages() {
+			return order.length;
+		}
+
+		public Engine getEngine(int i) {
+			return order[i];
+		}
+
+		public long getTime(int i) {
+			return times[i];
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(shape.toString());
+			for (int i = 0; i < order.length; i++) {
+				sb.append(' ').append(order[i]).append(" = ");
+				sb.append(times[i] < 0 ? "-" : (times[i] / 1000) + " us");
+			}
+			return sb.toString();
+		}
+	}
+
+	// CONCURRENT only pays off with several cores and costs battery,
+	// so it is a setting (RecognitionSettings)
+	private static Mode sMode = Mode.SEQUENTIAL;
+	private static Engine[] sOrder = { Engine.ACC, Engine.HMM };
+	private static volatile boolean sDensityCheck = false;
+	private static ExecutorService sPool;
+
+	public static synchronized void setMode(Mode mode) {
+		sMode = mode;
+	}
+
+	public static synchronized Mode getMode() {
+		return sMode;
+	}
+
+	/*
+	 * If set, an ACC answer with a poor density has to be confirmed by
+	 * the other engines. Off by default: the game has always taken the
+	 * ACC answer as it is, and a disagreement fails a cast that the
+	 * player may have drawn right.
+	 */
+	public static void setDensityCheck(boolean check) {
+		sDensityCheck = check;
+	}
+
+	/*
+	 * True if the HMM answer can be used, so the gesture is worth
+	 * streaming into it while it is drawn. ACC is always confident
+	 * without the density check, and the engines after it are not
+	 * waited for.
+	 */
+	public static boolean usesHmm() {
+		Engine[] order;
+		synchronized (RecognitionCascade.class) {
+			order = sOrder;
+		}
+		for (Engine e : order) {
+			if (e == Engine.HMM) return true;
+			if (e == Engine.ACC && !sDensityCheck) return false;
+		}
+		return false;
+	}
+
+	/*
+	 * Sets the engines and the order they are run in
+	 */
+	public static synchronized void setOrder(Engine... order) {
+		sOrder = order.clone();
+	}
+
+	public static Result recognize(ArrayList<Vector3d> records) {
+		Mode mode;
+		Engine[] order;
+		synchronized (RecognitionCascade.class) {
+			mode = sMode;
+			order = sOrder;
+		}
+		long[] times = new long[order.length];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = -1;
+		}
+		Shape shape = (mode == Mode.CONCURRENT && order.length > 1)
+				? runConcurrent(records, order, times)
+				: runSequential(records, order, times);
+		Result result = new Result(shape, order, times);
+		if (D) Log.e("Wizard Fight Time", "Cascade: " + result);
+		return result;
+	}
+
+	private static Shape runSequential(ArrayList<Vector3d> records,
+			Engine[] order, long[] times) {
+		Stage[] stages = new Stage[order.length];
+		for (int i = 0; i < order.length; i++) {
+			stages[i] = timedRun(order[i], records);
+			times[i] = stages[i].time;
+			if (stages[i].confident) {
+				return stages[i].shape;
+			}
+		}
+		return agreedShape(stages);
+	}
+
+	/*
+	 * The first engine runs on the calling thread, the others on the
+	 * pool. Engines that have not finished once a confident answer
+	 * arrives are cancelled.
+	 */
+	private static Shape runConcurrent(final ArrayList<Vector3d> records,
+			Engine[] order, long[] times) {
+		ExecutorCompletionService<Stage> completion =
+				new ExecutorCompletionService<Stage>(getPool());
+		ArrayList<Future<Stage>> futures = new ArrayList<Future<Stage>>();
+		for (int i = 1; i < order.length; i++) {
+			final Engine engine = order[i];
+			futures.add(completion.submit(new Callable<Stage>() {
+				@Override
+				public Stage call() {
+					return timedRun(engine, records);
+				}
+			}));
+		}
+
+		Stage[] stages = new Stage[order.length];
+		try {
+			Stage first = timedRun(order[0], records);
+			stages[0] = first;
+			times[0] = first.time;
+			if (first.confident) {
+				return first.shape;
+			}
+			for (int n = 1; n < order.length; n++) {
+				Stage s = completion.take().get();
+				int i = indexOf(order, s.engine, stages);
+				stages[i] = s;
+				times[i] = s.time;
+				if (s.confident) {
+					return s.shape;
+				}
+			}
+			return agreedShape(stages);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Shape.FAIL;
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			for (Future<Stage> f : futures) {
+				f.cancel(true);
+			}
+		}
+	}
+
+	private static Stage timedRun(Engine engine, ArrayList<Vector3d> records) {
+		long t = System.nanoTime();
+		Stage stage = engine.run(records);
+		stage.time = System.nanoTime() - t;
+		return stage;
+	}
+
+	/*
+	 * Slot of an engine answer, the first free one if the engine
+	 * appears in the order twice
+	 */
+	private static int indexOf(Engine[] order, Engine engine, Stage[] stages) {
+		for (int i = 0; i < order.length; i++) {
+			if (order[i] == engine && stages[i] == null) return i;
+		}
+		return -1;
+	}
+
+	private static Shape agreedShape(Stage[] stages) {
+		Shape shape = stages[0].shape;
+		for (Stage s : stages) {
+			if (s.shape != shape) return Shape.FAIL;
+		}
+		return shape;
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (sPool == null) {
+			sPool = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Recognition cascade");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return sPool;
+	}
+}
@@ -0,0 +1,38 @@
+package com.wizardfight;
+
+import com.wizardfight.accrecognizer.AccRecognition;
+import com.wizardfight.recognition.HMM;
+import com.wizardfight.recognition.Recognizer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/*
+ * Recognition options from the settings screen (res/xml/prefs.xml).
+ * Every option is off by default, which is the original behaviour.
+ */
+class RecognitionSettings {
+
+	/*
+	 * Passes the saved options to the recognizers,
+	 * called when a cast activity starts
+	 */
+	static void apply(Context context) {
+		SharedPreferences appPrefs = PreferenceManager
+				.getDefaultSharedPreferences(context);
+		boolean densityCheck = appPrefs.getBoolean("density_check", false);
+		RecognitionCascade.setDensityCheck(densityCheck);
+		// without the density check the second engine is never waited for,
+		// starting it at once would only waste a core
+		RecognitionCascade.setMode(densityCheck
+				&& appPrefs.getBoolean("concurrent_recognition", false)
+				? RecognitionCascade.Mode.CONCURRENT : RecognitionCascade.Mode.SEQUENTIAL);
+		AccRecognition.setEngine(appPrefs.getBoolean("dtw_matching", false)
+				? AccRecognition.Engine.DTW : AccRecognition.Engine.SPEED_MODEL);
+		AccRecognition.setFuseSpeeds(appPrefs.getBoolean("fuse_speeds", false));
+		AcceleratorThread.AUTO_STOP = appPrefs.getBoolean("auto_stop", false);
+		Recognizer.setDecoding(appPrefs.getBoolean("viterbi_decoding", false)
+				? HMM.Decoding.VITERBI : HMM.Decoding.FORWARD);
+	}
+}
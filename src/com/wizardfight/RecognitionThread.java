@@ -1,52 +1,162 @@
 package com.wizardfight;
 
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+
 import com.wizardfight.FightActivity.AppMessage;
 import com.wizardfight.components.*;
-import com.wizardfight.accrecognizer.AccRecognition;
-import com.wizardfight.recognition.Recognizer;
 import android.os.Handler;
 import android.util.Log;
 
 /*
- * Thread that runs recognition and sends result via handler
+ * Long-lived thread that runs recognition of casted gestures one by one
+ * and sends results via handler. Started with the first request and
+ * kept for the whole process.
  */
 class RecognitionThread extends Thread {
 	private final static boolean D = false;
-	private final Handler mHandler;
-	private final ArrayList<Vector3d> mRecords;
+	// pending requests, the oldest one fails when it is full
+	private static final int QUEUE_SIZE = 4;
+	// a spell waiting longer than that is stale and fails
+	private static final long MAX_WAIT_MS = 1000;
+	private static final int WARM_UP_RUNS = 10;
+
+	private static RecognitionThread sThread;
+	private static final ArrayBlockingQueue<Request> sQueue =
+			new ArrayBlockingQueue<Request>(QUEUE_SIZE);
+	private static int sDropped;
+
+	private static class Request {
+		final Handler handler; // null for the warm-up request
+		final ArrayList<Vector3d> records;
+		final long time;
 
-	
-	public RecognitionThread(Handler mainHandler, ArrayList<Vector3d> recs) {
+		Request(Handler handler, ArrayList<Vector3d> records) {
+			this.handler = handler;
+			this.records = records;
+			time = System.currentTimeMillis();
+		}
+	}
+
+	private RecognitionThread() {
 		setName("Recognition thread");
-		mHandler = mainHandler;
-		mRecords = recs;
+		setDaemon(true);
+	}
+
+	/*
+	 * Queues the gesture, its shape is sent to mainHandler
+	 * as MESSAGE_FROM_SELF
+	 */
+	public static void recognize(Handler mainHandler, ArrayList<Vector3d> recs) {
+		enqueue(new Request(mainHandler, recs));
+	}
+
+	/*
+	 * Runs the recognition engines on a synthetic gesture, so the
+	 * code is compiled before the first real cast. The HMM stream of
+	 * a cast in progress is left alone, as Recognizer only finishes
+	 * a stream with the gesture it was fed.
+	 */
+	public static void warmUp() {
+		ArrayList<Vector3d> records = new ArrayList<Vector3d>();
+		for (int i = 0; i < 50; i++) {
+			double a = 2 * Math.PI * i / 50;
+			records.add(new Vector3d(5 * Math.sin(a), 5 * Math.cos(a), 9.8));
+		}
+		enqueue(new Request(null, records));
 	}
-	
+
+	/*
+	 * Drops the requests of a handler that is going away
+	 */
+	public static synchronized void cancel(Handler mainHandler) {
+		Iterator<Request> it = sQueue.iterator();
+		while (it.hasNext()) {
+			if (it.next().handler == mainHandler) {
+				it.remove();
+				sDropped++;
+			}
+		}
+	}
+
+	/*
+	 * Number of requests dropped without recognition
+	 */
+	public static synchronized int getDropped() {
+		return sDropped;
+	}
+
+	private static synchronized void enqueue(Request request) {
+		if (sThread == null) {
+			sThread = new RecognitionThread();
+			sThread.start();
+		}
+		while (!sQueue.offer(request)) {
+			// the oldest request is superseded by the new one,
+			// its caster still gets an answer
+			Request oldest = sQueue.poll();
+			if (oldest != null) {
+				sDropped++;
+				send(oldest, Shape.FAIL);
+			}
+		}
+	}
+
 	public void run() {
-		try {
-			if (D) Log.e("Wizard fight", "Recognition thread begin");
-			String shapeStr = AccRecognition.recognize(mRecords).toUpperCase();
-			Shape accShape, shape;
-			boolean goodDensity = AccRecognition.isGoodDensity();
+		while (true) {
+			Request request;
 			try {
-				accShape = Shape.valueOf(shapeStr.toUpperCase());
-			} catch(Exception e) {
-				accShape = Shape.FAIL;
+				request = sQueue.take();
+			} catch (InterruptedException e) {
+				return;
 			}
-			
-			if(goodDensity) {
-				shape = accShape;
-			} else {
-				Shape hmmShape = Recognizer.recognize(mRecords);
-				shape = (accShape == hmmShape)? accShape : Shape.FAIL; 
+			try {
+				if (request.handler == null) {
+					runWarmUp(request.records);
+				} else {
+					process(request);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void process(Request request) {
+		if (D) Log.e("Wizard fight", "Recognition begin");
+		Shape shape;
+		long wait = System.currentTimeMillis() - request.time;
+		if (wait > MAX_WAIT_MS) {
+			if (D) Log.e("Wizard fight", "Stale gesture, waited " + wait + " ms");
+			synchronized (RecognitionThread.class) {
+				sDropped++;
+			}
+			shape = Shape.FAIL;
+		} else {
+			RecognitionCascade.Result result =
+					RecognitionCascade.recognize(request.records);
+			shape = result.getShape();
+			if (D) Log.e("Wizard fight", "Recognized " + result);
+		}
+
+		send(request, shape);
+	}
+
+	private static void send(Request request, Shape shape) {
+		if (request.handler == null) return;
+		FightMessage message = FightMessage.obtain(shape);
+		request.handler.obtainMessage(AppMessage.MESSAGE_FROM_SELF.ordinal(), 0, 0, message)
+				.sendToTarget();
+	}
+
+	private void runWarmUp(ArrayList<Vector3d> records) {
+		long t = System.currentTimeMillis();
+		for (int i = 0; i < WARM_UP_RUNS; i++) {
+			for (RecognitionCascade.Engine e : RecognitionCascade.Engine.values()) {
+				e.run(records);
 			}
-			
-			FightMessage message = new FightMessage(shape);
-			mHandler.obtainMessage(AppMessage.MESSAGE_FROM_SELF.ordinal(), 0, 0, message)
-        		.sendToTarget();
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
+		if (D) Log.e("Wizard Fight Time", "Warm-up: " + (System.currentTimeMillis() - t) + " ms");
 	}
 }
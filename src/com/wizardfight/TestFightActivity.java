@@ -104,7 +104,9 @@ public class TestFightActivity extends FightActivity {
         
         // send to bot
         if(mPlayerBot.getHandler()!=null) {
-            mPlayerBot.getHandler().obtainMessage(AppMessage.MESSAGE_FROM_ENEMY.ordinal(), fMessage).sendToTarget();
+            // the bot gets its own copy, fMessage stays with the caller
+            mPlayerBot.getHandler().obtainMessage(AppMessage.MESSAGE_FROM_ENEMY.ordinal(),
+                    FightMessage.obtain(fMessage)).sendToTarget();
         }
     }
 
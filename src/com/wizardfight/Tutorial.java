@@ -113,7 +113,7 @@ public class Tutorial extends CastActivity implements WizardDialDelegate {
 		return new Handler() {
 			@Override
 			public void handleMessage(Message msg) {
-				AppMessage type = AppMessage.values()[msg.what];
+				AppMessage type = AppMessage.fromOrdinal(msg.what);
 				switch (type) {
 				case MESSAGE_FROM_SELF:
 					FightMessage fMsg = (FightMessage) msg.obj;
@@ -128,6 +128,7 @@ public class Tutorial extends CastActivity implements WizardDialDelegate {
 					}
 					if (D) Log.e("Wizard Fight", shape.toString());
 					mIsCastAbilityBlocked = false;
+					fMsg.recycle();
 					break;
 				default:
 				}
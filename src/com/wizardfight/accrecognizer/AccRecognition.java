@@ -6,13 +6,51 @@ import java.util.ArrayList;
 import android.content.res.Resources;
 import android.util.Log;
 
+import com.wizardfight.components.BinaryModel;
 import com.wizardfight.components.Vector3d;
 import com.wizardfight.R;
 
 public class AccRecognition {
 	public static boolean D = false;
 	private static AccRecognizer recognizer;
+	
+	/*
+	 * How a gesture is matched to the shape templates
+	 */
+	public enum Engine {
+		SPEED_MODEL, // point by point after resizing to the model speed
+		DTW          // dynamic time warping inside a band
+	}
+	private static volatile Engine engine = Engine.SPEED_MODEL;
+	// score every speed model instead of the nearest one
+	private static volatile boolean fuseSpeeds = false;
+	
+	public static void setEngine(Engine e) {
+		engine = e;
+	}
+	
+	public static Engine getEngine() {
+		return engine;
+	}
+	
+	public static void setFuseSpeeds(boolean fuse) {
+		fuseSpeeds = fuse;
+	}
+	
+	public static boolean isFuseSpeeds() {
+		return fuseSpeeds;
+	}
+
 	public static void init(Resources res) {
+		recognizer = null;
+		try {
+			recognizer = AccRecognizer.readFrom(
+					BinaryModel.load(res, R.raw.acc_model_flat));
+			if (D) Log.e("AccRecognition", "binary recognizer is loaded");
+		} catch (Exception ex) {
+			if (D) Log.e("AccRecognition", "ERROR: Failed to load binary acc recognizer ! " + ex);
+		}
+		if (recognizer != null) return;
 		recognizer = new AccRecognizer();
 		try {
 			ObjectInputStream is = new ObjectInputStream(
@@ -24,17 +62,32 @@ public class AccRecognition {
 			if (D) Log.e("AccRecognition", "ERROR: Failed to load acc recognizer ! " + ex);
 		}
 	}
-	public static String recognize(ArrayList<Vector3d> records) {
-		return recognizer.recognize(records);
-	}
-	
-	public static double getDensity() {
-		return recognizer.getDensity();
+	public static AccResult recognize(ArrayList<Vector3d> records) {
+		return recognize(records, false);
 	}
-	public static double getAccuracy() {
-		return recognizer.getAccuracy();
+
+	/*
+	 * Safe to call from several threads at once. Per-template
+	 * scores are only kept in the result withScores.
+	 */
+	public static AccResult recognize(ArrayList<Vector3d> records, boolean withScores) {
+		if (fuseSpeeds) {
+			return recognizer.recognizeAllSpeeds(records, engine == Engine.DTW, withScores);
+		}
+		if (engine == Engine.DTW) {
+			return recognizer.recognizeDtw(records, withScores);
+		}
+		return recognizer.recognize(records, withScores);
 	}
-	public static boolean isGoodDensity() {
-		return recognizer.isGoodDensity();
+
+	/*
+	 * Only the shape recognize() would find. The speed model engine
+	 * then stops scoring a template once it is farther than the best.
+	 */
+	public static String recognizeShape(ArrayList<Vector3d> records) {
+		if (fuseSpeeds || engine == Engine.DTW) {
+			return recognize(records, false).getShape();
+		}
+		return recognizer.recognizeShape(records);
 	}
 }
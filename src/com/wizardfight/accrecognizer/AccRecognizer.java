@@ -1,20 +1,29 @@
 package com.wizardfight.accrecognizer;
 
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import android.util.Log;
 
+import com.wizardfight.components.BinaryModel;
 import com.wizardfight.components.Vector3d;
 
 public class AccRecognizer implements Serializable {
 	private static final long serialVersionUID = 270120151348L;
-	private static final double WORTH_DENSITY = 0.05;
 	
 	public enum Speed {
 		FAST(35),
@@ -27,9 +36,13 @@ public class AccRecognizer implements Serializable {
 		}
 	}
 	
+	private static final Speed[] SPEEDS = Speed.values();
 	private HashMap<Speed, SpeedModel> sModels;
-	private double lastDensity;
-	private double lastAccuracy;
+	// DTW matchers of all speeds, built on first use
+	private transient volatile EnumMap<Speed, DtwModel> dtwModels;
+	// worker pool shared by all recognizers for scoring speeds in parallel
+	private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService speedPool;
 	
 	public AccRecognizer() {
 		sModels = new HashMap<Speed, SpeedModel>();
@@ -56,23 +69,156 @@ public class AccRecognizer implements Serializable {
 		}
 	}
 	
-	public String recognize(ArrayList<Vector3d> records) {
+	public void writeTo(DataOutputStream out) throws IOException {
+		BinaryModel.writeHeader(out, BinaryModel.ACC);
+		out.writeInt(sModels.size());
+		for (Map.Entry<Speed, SpeedModel> entry : sModels.entrySet()){
+			BinaryModel.writeString(out, entry.getKey().name());
+			entry.getValue().writeTo(out);
+		}
+	}
+
+	public static AccRecognizer readFrom(ByteBuffer buf) throws IOException {
+		BinaryModel.readHeader(buf, BinaryModel.ACC);
+		AccRecognizer recognizer = new AccRecognizer();
+		int numSpeeds = buf.getInt();
+		for (int i = 0; i < numSpeeds; i++) {
+			Speed speed = Speed.valueOf(BinaryModel.readString(buf));
+			recognizer.sModels.put(speed, SpeedModel.readFrom(buf, speed));
+		}
+		return recognizer;
+	}
+
+	/*
+	 * Recognition methods don't change the recognizer,
+	 * so they may run from several threads at once
+	 */
+	public AccResult recognize(ArrayList<Vector3d> records, boolean withScores) {
+		Speed nearestSpeed = getNearestSpeed(records.size());
+		
+		return sModels.get(nearestSpeed).recognize(records, withScores);
+	}
+	
+	public String recognizeShape(ArrayList<Vector3d> records) {
+		Speed nearestSpeed = getNearestSpeed(records.size());
+		return sModels.get(nearestSpeed).recognizeShape(records);
+	}
+
+	/*
+	 * Same as recognize(), but matches the gesture to the templates
+	 * with dynamic time warping
+	 */
+	public AccResult recognizeDtw(ArrayList<Vector3d> records, boolean withScores) {
+		return recognizeDtw(records, withScores, true);
+	}
+
+	AccResult recognizeDtw(ArrayList<Vector3d> records, boolean withScores,
+			boolean useLowerBound) {
+		Speed nearestSpeed = getNearestSpeed(records.size());
+		return getDtwModels().get(nearestSpeed).recognize(records, withScores, useLowerBound);
+	}
+	
+	/*
+	 * Scores the gesture against every speed model, concurrently when
+	 * the device has several cores, and returns the result with the
+	 * least distance per template point
+	 */
+	public AccResult recognizeAllSpeeds(final ArrayList<Vector3d> records,
+			final boolean dtw, final boolean withScores) {
 		Speed[] speeds = Speed.values();
+		AccResult[] results = new AccResult[speeds.length];
+		if (POOL_SIZE > 1) {
+			ArrayList<Callable<AccResult>> tasks = new ArrayList<Callable<AccResult>>();
+			for (final Speed s : speeds) {
+				tasks.add(new Callable<AccResult>() {
+					@Override
+					public AccResult call() {
+						return scoreSpeed(s, records, dtw, withScores);
+					}
+				});
+			}
+			try {
+				List<Future<AccResult>> futures = getSpeedPool().invokeAll(tasks);
+				for (int i = 0; i < speeds.length; i++) {
+					results[i] = futures.get(i).get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				// finish the job on the calling thread
+				for (int i = 0; i < speeds.length; i++) {
+					results[i] = scoreSpeed(speeds[i], records, dtw, withScores);
+				}
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		} else {
+			for (int i = 0; i < speeds.length; i++) {
+				results[i] = scoreSpeed(speeds[i], records, dtw, withScores);
+			}
+		}
+
+		double bestDistance = Double.MAX_VALUE;
+		AccResult best = results[0];
+		for (int i = 0; i < speeds.length; i++) {
+			double distance = results[i].getAccuracy() / speeds[i].size;
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = results[i];
+			}
+		}
+		return best;
+	}
+
+	private AccResult scoreSpeed(Speed s, ArrayList<Vector3d> records, boolean dtw,
+			boolean withScores) {
+		return dtw ? getDtwModels().get(s).recognize(records, withScores)
+				: sModels.get(s).recognize(records, withScores);
+	}
+
+	private static synchronized ExecutorService getSpeedPool() {
+		if (speedPool == null) {
+			speedPool = Executors.newFixedThreadPool(
+					Math.min(POOL_SIZE, Speed.values().length), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Speed model scoring");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return speedPool;
+	}
+
+	/*
+	 * Two threads may build the matchers at once, both get equal ones
+	 */
+	private EnumMap<Speed, DtwModel> getDtwModels() {
+		EnumMap<Speed, DtwModel> models = dtwModels;
+		if (models == null) {
+			models = new EnumMap<Speed, DtwModel>(Speed.class);
+			for (Map.Entry<Speed, SpeedModel> entry : sModels.entrySet()) {
+				models.put(entry.getKey(), new DtwModel(entry.getValue()));
+			}
+			dtwModels = models;
+		}
+		return models;
+	}
+	
+	private Speed getNearestSpeed(int size) {
+		Speed[] speeds = SPEEDS;
 		int bestSizeDiff = Integer.MAX_VALUE;
 		Speed nearestSpeed = null;
 		
 		for(Speed s : speeds) {
-			int diff = s.size - records.size();
+			int diff = s.size - size;
 			if(diff < 0) diff = -diff;
 			if(diff < bestSizeDiff) {
 				bestSizeDiff = diff;
 				nearestSpeed = s;
 			}
 		}
-		
-		String shapeName = sModels.get(nearestSpeed).recognize(records);
-		
-		return shapeName;
+		return nearestSpeed;
 	}
 	
 	public void print() {
@@ -82,15 +228,4 @@ public class AccRecognizer implements Serializable {
 		}
 	}
 	
-	public double getDensity() {
-		return lastDensity;
-	}
-	
-	public double getAccuracy() {
-		return lastAccuracy;
-	}
-
-	public boolean isGoodDensity() {
-		return lastDensity <= WORTH_DENSITY;
-	}
 }
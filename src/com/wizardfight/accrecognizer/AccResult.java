@@ -0,0 +1,74 @@
+package com.wizardfight.accrecognizer;
+
+/*
+ * Immutable result of one accelerometer recognition
+ */
+public class AccResult {
+	private static final double WORTH_DENSITY = 0.05;
+
+	private final String shape;
+	private final double density;
+	private final double accuracy;
+	private final String[] shapeNames; // shared with the model, never changed
+	private final double[] scores; // null unless asked for
+
+	AccResult(String shape, double density, double accuracy,
+			String[] shapeNames, double[] scores) {
+		this.shape = shape;
+		this.density = density;
+		this.accuracy = accuracy;
+		this.shapeNames = shapeNames;
+		this.scores = scores;
+	}
+
+	/*
+	 * Name of the recognized shape, "none" if there are no templates
+	 */
+	public String getShape() {
+		return shape;
+	}
+
+	/*
+	 * Best distance divided by the sum of distances to all templates,
+	 * the less the more distinct the recognized shape is
+	 */
+	public double getDensity() {
+		return density;
+	}
+
+	/*
+	 * Distance to the best template
+	 */
+	public double getAccuracy() {
+		return accuracy;
+	}
+
+	public boolean isGoodDensity() {
+		return density <= WORTH_DENSITY;
+	}
+
+	/*
+	 * Number of template scores, 0 unless the recognition
+	 * was asked to keep them
+	 */
+	public int getNumScores() {
+		return (scores == null) ? 0 : scores.length;
+	}
+
+	public String getScoreShape(int i) {
+		return shapeNames[i];
+	}
+
+	/*
+	 * Distance to template i. For templates skipped by DTW pruning
+	 * this is a lower bound of the distance.
+	 */
+	public double getScore(int i) {
+		return scores[i];
+	}
+
+	@Override
+	public String toString() {
+		return shape + " density = " + density + " accuracy = " + accuracy;
+	}
+}
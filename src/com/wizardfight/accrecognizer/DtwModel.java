@@ -0,0 +1,190 @@
+package com.wizardfight.accrecognizer;
+
+import java.util.ArrayList;
+
+import com.wizardfight.components.Vector3d;
+
+/*
+ * Dynamic time warping matcher over the templates of one SpeedModel.
+ * The gesture is resized to the template length like in SpeedModel,
+ * then warped inside a Sakoe-Chiba band, so uneven casts still match.
+ * Templates whose LB_Keogh lower bound can't beat the best one are
+ * skipped, and DTW itself stops once a whole row is too far.
+ * The model is immutable after construction.
+ */
+class DtwModel {
+	// band radius as a part of the template length
+	private static final double BAND = 0.1;
+
+	private final int size;
+	private final int window;
+	private final String[] shapeNames;
+	private final double[] templateX;
+	private final double[] templateY;
+	private final double[] templateZ;
+	// LB_Keogh envelopes of every template, same layout as templates
+	private final double[] upperX, lowerX;
+	private final double[] upperY, lowerY;
+	private final double[] upperZ, lowerZ;
+
+	DtwModel(SpeedModel model) {
+		size = model.getSpeed().size;
+		window = Math.max(1, (int) (size * BAND));
+		SpeedModel.Templates tpl = model.getTemplates();
+		shapeNames = tpl.names;
+		templateX = tpl.x;
+		templateY = tpl.y;
+		templateZ = tpl.z;
+		int n = templateX.length;
+		upperX = new double[n];
+		lowerX = new double[n];
+		upperY = new double[n];
+		lowerY = new double[n];
+		upperZ = new double[n];
+		lowerZ = new double[n];
+		envelope(templateX, upperX, lowerX);
+		envelope(templateY, upperY, lowerY);
+		envelope(templateZ, upperZ, lowerZ);
+	}
+
+	/*
+	 * Returns the nearest shape. Templates that were pruned add their
+	 * lower bound to the density sum, so density can only come out
+	 * higher (worse) than with exact distances. Scores are kept
+	 * only withScores.
+	 */
+	AccResult recognize(ArrayList<Vector3d> records, boolean withScores) {
+		return recognize(records, withScores, true);
+	}
+
+	/*
+	 * Without useLowerBound every template gets a DTW pass,
+	 * for the benchmarks that time the pruning
+	 */
+	AccResult recognize(ArrayList<Vector3d> records, boolean withScores,
+			boolean useLowerBound) {
+		final SpeedModel.Scratch scratch = SpeedModel.getScratch(size);
+		final double[] gx = scratch.gx;
+		final double[] gy = scratch.gy;
+		final double[] gz = scratch.gz;
+		SpeedModel.loadGesture(records, size, gx, gy, gz);
+		// DTW cost rows
+		final double[] prev = scratch.prev;
+		final double[] cur = scratch.cur;
+		double[] scores = withScores ? new double[shapeNames.length] : null;
+
+		double best = Double.MAX_VALUE;
+		int bestShape = -1;
+		double sum = 0.0;
+		for (int s = 0; s < shapeNames.length; s++) {
+			double d = useLowerBound ? lowerBound(s, gx, gy, gz, best) : 0.0;
+			if (d < best) {
+				d = distance(s, gx, gy, gz, prev, cur, best);
+			}
+			if (d < best) {
+				best = d;
+				bestShape = s;
+			}
+			if (scores != null) scores[s] = d;
+			sum += d;
+		}
+
+		String shape = (bestShape < 0) ? "none" : shapeNames[bestShape];
+		return new AccResult(shape, best / sum, best, shapeNames, scores);
+	}
+
+	/*
+	 * LB_Keogh: distance from each gesture point to the bounding box of
+	 * the template points it may be warped to. Stops above limit.
+	 */
+	private double lowerBound(int s, double[] gx, double[] gy, double[] gz,
+			double limit) {
+		double lb = 0.0;
+		for (int i = 0, t = s * size; i < size; i++, t++) {
+			double dx = outside(gx[i], lowerX[t], upperX[t]);
+			double dy = outside(gy[i], lowerY[t], upperY[t]);
+			double dz = outside(gz[i], lowerZ[t], upperZ[t]);
+			lb += Math.sqrt(dx * dx + dy * dy + dz * dz);
+			if (lb >= limit) break;
+		}
+		return lb;
+	}
+
+	/*
+	 * Banded DTW distance to template s. Returns a lower bound not
+	 * less than limit as soon as the result can't get under it.
+	 */
+	private double distance(int s, double[] gestureX, double[] gestureY,
+			double[] gestureZ, double[] prev, double[] cur, double limit) {
+		final int offset = s * size;
+		// column 0 of the rows is a border of infinite cost
+		for (int j = 0; j <= size; j++) {
+			prev[j] = Double.POSITIVE_INFINITY;
+			cur[j] = Double.POSITIVE_INFINITY;
+		}
+
+		for (int i = 0; i < size; i++) {
+			final int jStart = Math.max(0, i - window);
+			final int jEnd = Math.min(size - 1, i + window);
+			final double gx = gestureX[i];
+			final double gy = gestureY[i];
+			final double gz = gestureZ[i];
+			// left of the band may hold a value from an older row
+			cur[jStart] = Double.POSITIVE_INFINITY;
+			double rowMin = Double.POSITIVE_INFINITY;
+			for (int j = jStart; j <= jEnd; j++) {
+				int t = offset + j;
+				double dx = templateX[t] - gx;
+				double dy = templateY[t] - gy;
+				double dz = templateZ[t] - gz;
+				double cost = Math.sqrt(dx * dx + dy * dy + dz * dz);
+				double min;
+				if (i == 0 && j == 0) {
+					min = 0.0;
+				} else {
+					min = prev[j];
+					if (prev[j + 1] < min) min = prev[j + 1];
+					if (cur[j] < min) min = cur[j];
+				}
+				double val = cost + min;
+				cur[j + 1] = val;
+				if (val < rowMin) rowMin = val;
+			}
+			if (rowMin >= limit) {
+				return rowMin;
+			}
+			double[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+		}
+		return prev[size];
+	}
+
+	private static double outside(double v, double lower, double upper) {
+		if (v > upper) return v - upper;
+		if (v < lower) return lower - v;
+		return 0.0;
+	}
+
+	/*
+	 * Min and max of every template over the band around each point
+	 */
+	private void envelope(double[] values, double[] upper, double[] lower) {
+		for (int s = 0; s < shapeNames.length; s++) {
+			int offset = s * size;
+			for (int i = 0; i < size; i++) {
+				int jStart = Math.max(0, i - window);
+				int jEnd = Math.min(size - 1, i + window);
+				double max = -Double.MAX_VALUE;
+				double min = Double.MAX_VALUE;
+				for (int j = jStart; j <= jEnd; j++) {
+					double v = values[offset + j];
+					if (v > max) max = v;
+					if (v < min) min = v;
+				}
+				upper[offset + i] = max;
+				lower[offset + i] = min;
+			}
+		}
+	}
+}
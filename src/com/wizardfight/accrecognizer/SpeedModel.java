@@ -1,20 +1,24 @@
 package com.wizardfight.accrecognizer;
 
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import android.util.Log;
 
 import com.wizardfight.accrecognizer.AccRecognizer.Speed;
+import com.wizardfight.components.BinaryModel;
 import com.wizardfight.components.Vector3d;
 
 public class SpeedModel implements Serializable {
@@ -22,14 +26,97 @@ public class SpeedModel implements Serializable {
 	
 	private final Speed modelSpeed;
 	private HashMap<String, ArrayList<Vector3d>> shapeRecords;
-	private double lastDensity;
-	private double lastAccuracy;
+	// Templates as contiguous arrays, built from shapeRecords on first use
+	private transient volatile Templates templates;
+
+	/*
+	 * Immutable template arrays. Point i of shape s is at s * size + i
+	 */
+	static final class Templates {
+		final String[] names;
+		final double[] x;
+		final double[] y;
+		final double[] z;
+
+		Templates(String[] names, double[] x, double[] y, double[] z) {
+			this.names = names;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+	}
+
+	/*
+	 * Resized gesture and DTW cost rows of one thread. The buffers grow
+	 * to the largest speed the thread has scored, after that scoring
+	 * allocates nothing but the result.
+	 */
+	static final class Scratch {
+		double[] gx = new double[0];
+		double[] gy = new double[0];
+		double[] gz = new double[0];
+		double[] prev = new double[0];
+		double[] cur = new double[0];
+
+		private void ensure(int size) {
+			if (gx.length < size) {
+				gx = new double[size];
+				gy = new double[size];
+				gz = new double[size];
+				prev = new double[size + 1];
+				cur = new double[size + 1];
+			}
+		}
+	}
+
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
 
 	public SpeedModel(Speed speed) {
 		modelSpeed = speed;
 		shapeRecords = new HashMap<String, ArrayList<Vector3d>>();
 	}
 
+	/*
+	 * Writes shape templates in iteration order, so a loaded
+	 * model visits them in the same order
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(shapeRecords.size());
+		for (Map.Entry<String, ArrayList<Vector3d>> entry 
+				: shapeRecords.entrySet()){
+			BinaryModel.writeString(out, entry.getKey());
+			ArrayList<Vector3d> rows = entry.getValue();
+			out.writeInt(rows.size());
+			for (Vector3d v : rows) {
+				out.writeDouble(v.x);
+				out.writeDouble(v.y);
+				out.writeDouble(v.z);
+			}
+		}
+	}
+
+	public static SpeedModel readFrom(ByteBuffer buf, Speed speed) throws IOException {
+		SpeedModel model = new SpeedModel(speed);
+		model.shapeRecords = new LinkedHashMap<String, ArrayList<Vector3d>>();
+		int numShapes = buf.getInt();
+		for (int s = 0; s < numShapes; s++) {
+			String shapeName = BinaryModel.readString(buf);
+			int n = buf.getInt();
+			double[] values = BinaryModel.readDoubles(buf, 3 * n);
+			ArrayList<Vector3d> rows = new ArrayList<Vector3d>(n);
+			for (int i = 0; i < n; i++) {
+				rows.add(new Vector3d(values[3 * i], values[3 * i + 1], values[3 * i + 2]));
+			}
+			model.shapeRecords.put(shapeName, rows);
+		}
+		return model;
+	}
+
 	public void initFromFolder(File folder) throws FileNotFoundException {
 		File[] fShapes = folder.listFiles();
 		for (int i = 0; i < fShapes.length; i++) {
@@ -102,54 +189,148 @@ public class SpeedModel implements Serializable {
 		return records;
 	}
 	
-	public String recognize(ArrayList<Vector3d> records) {
+	public AccResult recognize(ArrayList<Vector3d> records) {
+		return recognize(records, false);
+	}
+
+	/*
+	 * Compares the gesture with every template point by point. With
+	 * withScores the result also keeps the distance to every template.
+	 * The model is not changed, so it may be used from several threads.
+	 */
+	public AccResult recognize(ArrayList<Vector3d> records, boolean withScores) {
+		final Templates tpl = getTemplates();
+		final int size = modelSpeed.size;
+		final int numShapes = tpl.names.length;
+		final Scratch scratch = getScratch(size);
+		final double[] gx = scratch.gx;
+		final double[] gy = scratch.gy;
+		final double[] gz = scratch.gz;
+		loadGesture(records, size, gx, gy, gz);
+		double[] likelihoods = withScores ? new double[numShapes] : null;
 		double bestLikelihood = Double.MAX_VALUE;
-		double[] likelihoods = new double[ shapeRecords.size() ];
-		double likelihood;
-		String bestShape = "none";
-		int c = 0;
-		records = Vector3d.resize(records, modelSpeed.size);
-		for (Map.Entry<String, ArrayList<Vector3d>> entry 
-				: shapeRecords.entrySet()){
-			likelihood = 0.0;
-			ArrayList<Vector3d> modelData = entry.getValue();
+		int bestShape = -1;
+		double sum = 0.0;
+
+		for (int s = 0; s < numShapes; s++) {
+			double likelihood = distance(tpl, s, gx, gy, gz, Double.MAX_VALUE);
+			if (likelihoods != null) likelihoods[s] = likelihood;
 			
-			for(int i=0; i<modelSpeed.size; i++) {
-				Vector3d vm = modelData.get(i);
-				Vector3d v = records.get(i);
-				double diff = Math.sqrt(
-						(vm.x - v.x) * (vm.x - v.x) +
-						(vm.y - v.y) * (vm.y - v.y) +
-						(vm.z - v.z) * (vm.z - v.z) );
-				likelihood += diff;
+			if(likelihood < bestLikelihood) {
+				bestLikelihood = likelihood;
+				bestShape = s;
 			}
-			
-			likelihoods[c++] = likelihood;
-			
+			sum += likelihood;
+		}
+
+		String shape = (bestShape < 0) ? "none" : tpl.names[bestShape];
+		return new AccResult(shape, bestLikelihood / sum, bestLikelihood,
+				tpl.names, likelihoods);
+	}
+
+	/*
+	 * Finds the same shape as recognize(), but stops scoring a template
+	 * as soon as it is farther than the best one. Density and scores
+	 * need every full distance, so only the shape is returned.
+	 */
+	public String recognizeShape(ArrayList<Vector3d> records) {
+		final Templates tpl = getTemplates();
+		final int size = modelSpeed.size;
+		final Scratch scratch = getScratch(size);
+		final double[] gx = scratch.gx;
+		final double[] gy = scratch.gy;
+		final double[] gz = scratch.gz;
+		loadGesture(records, size, gx, gy, gz);
+		double bestLikelihood = Double.MAX_VALUE;
+		int bestShape = -1;
+
+		for (int s = 0; s < tpl.names.length; s++) {
+			double likelihood = distance(tpl, s, gx, gy, gz, bestLikelihood);
 			if(likelihood < bestLikelihood) {
 				bestLikelihood = likelihood;
-				bestShape = entry.getKey();
+				bestShape = s;
 			}
 		}
 		
-		double sum = 0.0;
+		return (bestShape < 0) ? "none" : tpl.names[bestShape];
+	}
 
-		for(double d : likelihoods) {
-			sum += d;
+	/*
+	 * Path distance between the gesture and template s.
+	 * Gives up once the partial sum exceeds limit.
+	 */
+	private double distance(Templates tpl, int s, double[] gx, double[] gy,
+			double[] gz, double limit) {
+		final int size = modelSpeed.size;
+		final double[] tx = tpl.x;
+		final double[] ty = tpl.y;
+		final double[] tz = tpl.z;
+		double likelihood = 0.0;
+		for(int i = 0, t = s * size; i < size; i++, t++) {
+			double dx = tx[t] - gx[i];
+			double dy = ty[t] - gy[i];
+			double dz = tz[t] - gz[i];
+			likelihood += Math.sqrt(dx * dx + dy * dy + dz * dz);
+			if (likelihood > limit) break;
 		}
+		return likelihood;
+	}
 
-		lastDensity = bestLikelihood / sum;
-		lastAccuracy = bestLikelihood;
-		
-		return bestShape;
+	/*
+	 * Scratch buffers of the calling thread, for gestures of size points
+	 */
+	static Scratch getScratch(int size) {
+		Scratch scratch = SCRATCH.get();
+		scratch.ensure(size);
+		return scratch;
 	}
-	
-	public double getDensity() {
-		return lastDensity;
+
+	/*
+	 * Resizes records to size points and copies them to gx, gy, gz
+	 */
+	static void loadGesture(ArrayList<Vector3d> records, int size,
+			double[] gx, double[] gy, double[] gz) {
+		Vector3d.resize(records, size, gx, gy, gz);
 	}
-	
-	public double getAccuracy() {
-		return lastAccuracy;
+
+	Speed getSpeed() {
+		return modelSpeed;
+	}
+
+	/*
+	 * Builds the template arrays on first use. Two threads may
+	 * build them at once, both get equal arrays.
+	 */
+	Templates getTemplates() {
+		Templates tpl = templates;
+		if (tpl == null) {
+			tpl = buildTemplates();
+			templates = tpl;
+		}
+		return tpl;
+	}
+
+	private Templates buildTemplates() {
+		final int size = modelSpeed.size;
+		final int numShapes = shapeRecords.size();
+		String[] names = new String[numShapes];
+		double[] tx = new double[numShapes * size];
+		double[] ty = new double[numShapes * size];
+		double[] tz = new double[numShapes * size];
+		int s = 0;
+		for (Map.Entry<String, ArrayList<Vector3d>> entry 
+				: shapeRecords.entrySet()){
+			names[s] = entry.getKey();
+			ArrayList<Vector3d> modelData = entry.getValue();
+			for (int i = 0, t = s * size; i < size; i++, t++) {
+				Vector3d vm = modelData.get(i);
+				tx[t] = vm.x;
+				ty[t] = vm.y;
+				tz[t] = vm.z;
+			}
+			s++;
+		}
+		return new Templates(names, tx, ty, tz);
 	}
 	
 	public void print() {
@@ -0,0 +1,120 @@
+package com.wizardfight.components;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+
+/*
+ * Flat binary model files: a versioned header followed by primitive
+ * arrays, all big endian. Files are read into a ByteBuffer, which is
+ * memory-mapped when the resource is stored uncompressed in the apk.
+ * aapt compresses raw resources unless their extension is one of the
+ * media types it leaves alone, and the ADT build has no option to
+ * change that, so the model files in res/raw are named *.ogg.
+ */
+public class BinaryModel {
+	public static final int MAGIC = 0x57464D44; // "WFMD"
+	public static final int VERSION = 1;
+	// model kinds
+	public static final int QUANTIZER = 1;
+	public static final int HMM = 2;
+	public static final int ACC = 3;
+
+	public static ByteBuffer load(Resources res, int id) throws IOException {
+		try {
+			AssetFileDescriptor afd = res.openRawResourceFd(id);
+			if (afd != null) {
+				FileInputStream in = afd.createInputStream();
+				try {
+					return in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+							afd.getStartOffset(), afd.getLength());
+				} finally {
+					in.close();
+				}
+			}
+		} catch (Resources.NotFoundException e) {
+			// resource is compressed, read it as a stream below
+		}
+		InputStream in = res.openRawResource(id);
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public static ByteBuffer read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] chunk = new byte[8192];
+		int n;
+		while ((n = in.read(chunk)) != -1) {
+			bytes.write(chunk, 0, n);
+		}
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	public static void writeHeader(DataOutputStream out, int kind) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeShort(kind);
+	}
+
+	public static void readHeader(ByteBuffer buf, int kind) throws IOException {
+		if (buf.getInt() != MAGIC) {
+			throw new IOException("not a model file");
+		}
+		int version = buf.getShort();
+		if (version != VERSION) {
+			throw new IOException("unsupported model version " + version);
+		}
+		int fileKind = buf.getShort();
+		if (fileKind != kind) {
+			throw new IOException("model kind " + fileKind + " instead of " + kind);
+		}
+	}
+
+	public static void writeDoubles(DataOutputStream out, double[] a) throws IOException {
+		for (double d : a) {
+			out.writeDouble(d);
+		}
+	}
+
+	public static double[] readDoubles(ByteBuffer buf, int n) {
+		double[] a = new double[n];
+		buf.asDoubleBuffer().get(a);
+		buf.position(buf.position() + n * 8);
+		return a;
+	}
+
+	public static void writeInts(DataOutputStream out, int[] a) throws IOException {
+		for (int i : a) {
+			out.writeInt(i);
+		}
+	}
+
+	public static int[] readInts(ByteBuffer buf, int n) {
+		int[] a = new int[n];
+		buf.asIntBuffer().get(a);
+		buf.position(buf.position() + n * 4);
+		return a;
+	}
+
+	public static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes("UTF-8");
+		out.writeShort(b.length);
+		out.write(b);
+	}
+
+	public static String readString(ByteBuffer buf) throws IOException {
+		byte[] b = new byte[buf.getShort() & 0xFFFF];
+		buf.get(b);
+		return new String(b, "UTF-8");
+	}
+}
@@ -0,0 +1,102 @@
+package com.wizardfight.components;
+
+/*
+ * Online detection of the gesture start and end in a stream of
+ * accelerometer samples. The hand is moving while the variance of the
+ * acceleration over a short window is high. The gesture spans all
+ * the windows with movement, so up to a window of idle samples is
+ * kept at each end as a margin, the idle rest is cut off.
+ * Thresholds are tuned for samples 20 ms apart.
+ */
+public class GestureSegmenter {
+	private static final int WINDOW = 10; // 200 ms
+	// summed variance of the axes, (m/s^2)^2
+	private static final double START_VARIANCE = 0.5;
+	private static final double STOP_VARIANCE = 0.15;
+	// quiet samples needed to end the gesture, 300 ms
+	private static final int HOLD = 15;
+
+	private final double[] wx = new double[WINDOW];
+	private final double[] wy = new double[WINDOW];
+	private final double[] wz = new double[WINDOW];
+	private double sumX, sumY, sumZ, sumSq;
+	private int count;
+	private int lastActive;
+	private int start;
+	private int end;
+	private boolean started;
+	private boolean ended;
+
+	public void reset() {
+		sumX = sumY = sumZ = sumSq = 0.0;
+		count = 0;
+		started = false;
+		ended = false;
+	}
+
+	/*
+	 * Returns true if this sample ends the gesture
+	 */
+	public boolean push(double x, double y, double z) {
+		final int n = count++;
+		final int slot = n % WINDOW;
+		if (n >= WINDOW) {
+			sumX -= wx[slot];
+			sumY -= wy[slot];
+			sumZ -= wz[slot];
+			sumSq -= wx[slot] * wx[slot] + wy[slot] * wy[slot]
+					+ wz[slot] * wz[slot];
+		}
+		wx[slot] = x;
+		wy[slot] = y;
+		wz[slot] = z;
+		sumX += x;
+		sumY += y;
+		sumZ += z;
+		sumSq += x * x + y * y + z * z;
+		if (n < WINDOW - 1 || ended) return false;
+
+		double variance = (sumSq - (sumX * sumX + sumY * sumY + sumZ * sumZ)
+				/ WINDOW) / WINDOW;
+		if (!started) {
+			if (variance > START_VARIANCE) {
+				started = true;
+				start = n + 1 - WINDOW;
+				lastActive = n;
+			}
+			return false;
+		}
+		if (variance > STOP_VARIANCE) {
+			lastActive = n;
+		} else if (n - lastActive >= HOLD) {
+			end = getEnd();
+			ended = true;
+			return true;
+		}
+		return false;
+	}
+
+	public boolean hasStarted() {
+		return started;
+	}
+
+	public boolean hasEnded() {
+		return ended;
+	}
+
+	/*
+	 * Index of the first gesture sample, valid once started
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/*
+	 * Index after the last gesture sample. While the gesture goes on
+	 * this is the end of the samples known to belong to it, trailing
+	 * quiet samples are not counted until the hand moves again.
+	 */
+	public int getEnd() {
+		return ended ? end : lastActive + 1;
+	}
+}
@@ -0,0 +1,64 @@
+package com.wizardfight.components;
+
+/*
+ * Streaming linear interpolator that turns unevenly spaced sensor
+ * samples into samples spaced exactly by a fixed period. Each input
+ * sample produces the output samples that lie between it and the
+ * previous input, so the output lags the input by at most one sample.
+ */
+public class Resampler {
+	public interface Listener {
+		void onSample(long timestamp, double x, double y, double z);
+	}
+
+	private final long period;
+	private final Listener listener;
+	private boolean hasPrev;
+	private long prevTime;
+	private double prevX, prevY, prevZ;
+	private long nextTime; // timestamp of the next output sample
+
+	/*
+	 * period is in the units of the timestamps, nanoseconds for sensors
+	 */
+	public Resampler(long period, Listener listener) {
+		this.period = period;
+		this.listener = listener;
+	}
+
+	public void reset() {
+		hasPrev = false;
+	}
+
+	public long getPeriod() {
+		return period;
+	}
+
+	public void push(long timestamp, double x, double y, double z) {
+		if (!hasPrev) {
+			// output grid starts at the first sample
+			hasPrev = true;
+			nextTime = timestamp;
+		} else if (timestamp <= prevTime) {
+			// repeated or out of order sample
+			return;
+		}
+		if (nextTime <= timestamp) {
+			final double dt = timestamp - prevTime;
+			while (nextTime < timestamp) {
+				double f = (nextTime - prevTime) / dt;
+				listener.onSample(nextTime, prevX + (x - prevX) * f,
+						prevY + (y - prevY) * f, prevZ + (z - prevZ) * f);
+				nextTime += period;
+			}
+			if (nextTime == timestamp) {
+				listener.onSample(timestamp, x, y, z);
+				nextTime += period;
+			}
+		}
+		prevTime = timestamp;
+		prevX = x;
+		prevY = y;
+		prevZ = z;
+	}
+}
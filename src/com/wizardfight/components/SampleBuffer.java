@@ -0,0 +1,100 @@
+package com.wizardfight.components;
+
+import java.util.ArrayList;
+
+/*
+ * Preallocated accelerometer capture buffer. Samples are stored in
+ * primitive arrays, so capturing creates no garbage at sensor rate,
+ * and the buffer is cleared and reused for every gesture.
+ * One thread adds samples, another one may read them after size().
+ */
+public class SampleBuffer {
+	private final long[] t; // sample timestamps
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	// written after the sample values, so a reader that has seen
+	// the count sees the samples too
+	private volatile int count;
+
+	public SampleBuffer(int capacity) {
+		t = new long[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+		z = new double[capacity];
+	}
+
+	public void clear() {
+		count = 0;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int capacity() {
+		return x.length;
+	}
+
+	public boolean isFull() {
+		return count == x.length;
+	}
+
+	/*
+	 * Returns false if the buffer is full and the sample is dropped
+	 */
+	public boolean add(long st, double sx, double sy, double sz) {
+		final int n = count;
+		if (n == x.length) return false;
+		t[n] = st;
+		x[n] = sx;
+		y[n] = sy;
+		z[n] = sz;
+		count = n + 1;
+		return true;
+	}
+
+	public long getTime(int i) {
+		return t[i];
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+
+	public double getY(int i) {
+		return y[i];
+	}
+
+	public double getZ(int i) {
+		return z[i];
+	}
+
+	/*
+	 * Copies the captured gesture to a new list, squeezed to
+	 * maxSize records like Vector3d.squeeze() does it.
+	 * Only the returned records are allocated.
+	 */
+	public ArrayList<Vector3d> toRecords(int maxSize) {
+		return toRecords(0, count, maxSize);
+	}
+
+	/*
+	 * Same for the samples from index from to index to (exclusive)
+	 */
+	public ArrayList<Vector3d> toRecords(int from, int to, int maxSize) {
+		final int n = to - from;
+		final int size = (n < maxSize) ? n : maxSize;
+		double[] sx = new double[size];
+		double[] sy = new double[size];
+		double[] sz = new double[size];
+		Vector3d.squeeze(x, from, n, sx, maxSize);
+		Vector3d.squeeze(y, from, n, sy, maxSize);
+		Vector3d.squeeze(z, from, n, sz, maxSize);
+		ArrayList<Vector3d> records = new ArrayList<Vector3d>(size);
+		for (int i = 0; i < size; i++) {
+			records.add(new Vector3d(sx[i], sy[i], sz[i]));
+		}
+		return records;
+	}
+}
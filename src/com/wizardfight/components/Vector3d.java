@@ -22,7 +22,7 @@ public class Vector3d implements Serializable {
     }
     
     public static ArrayList<Vector3d> resize(ArrayList<Vector3d> a, int size) {
-    	ArrayList<Vector3d> s = new ArrayList<Vector3d>();
+    	ArrayList<Vector3d> s = new ArrayList<Vector3d>(size);
 		double step = a.size() / (double) (size);
 		for (int i = 0; i < size; i++) {
 			s.add(getArrayResizeItem(a, step * i));
@@ -33,26 +33,87 @@ public class Vector3d implements Serializable {
     public static ArrayList<Vector3d> squeeze(ArrayList<Vector3d> a, int size) {
 		if (a.size() < size)
 			return a;
-		ArrayList<Vector3d> s = new ArrayList<Vector3d>();
-		double step = a.size() / (double) (size);
-		for (int i = 0; i < size; i++) {
-			s.add(getArrayResizeItem(a, step * i));
-		}
-		return s;
+		return resize(a, size);
 	}
+    
+    /*
+     * Same as resize(), but writes the coordinates of the resized
+     * records to x, y, z without creating new vectors
+     */
+    public static void resize(List<Vector3d> a, int size,
+    		double[] x, double[] y, double[] z) {
+    	final int n = a.size();
+		double step = n / (double) (size);
+		for (int k = 0; k < size; k++) {
+			double i = step * k;
+			int i0 = (int) i;
+			Vector3d v;
+			if (i == i0) {
+				v = a.get(i0);
+			} else if (i + 1 >= n) {
+				v = a.get(n - 1);
+			} else {
+				v = a.get(i0);
+				Vector3d v1 = a.get(i0 + 1);
+				double fPart = i - i0; // same as i % 1, but much cheaper
+				x[k] = v.x + (v1.x - v.x) * fPart;
+				y[k] = v.y + (v1.y - v.y) * fPart;
+				z[k] = v.z + (v1.z - v.z) * fPart;
+				continue;
+			}
+			x[k] = v.x;
+			y[k] = v.y;
+			z[k] = v.z;
+		}
+    }
+    
+    /*
+     * Resizes count values of src starting at offset to size values
+     * of dst with linear interpolation, the same way resize() does it
+     * for each coordinate. src and dst must be different arrays.
+     */
+    public static void resize(double[] src, int offset, int count,
+    		double[] dst, int size) {
+		double step = count / (double) (size);
+		for (int k = 0; k < size; k++) {
+			double i = step * k;
+			int i0 = (int) i;
+			if (i == i0) {
+				dst[k] = src[offset + i0];
+			} else if (i + 1 >= count) {
+				dst[k] = src[offset + count - 1];
+			} else {
+				double a = src[offset + i0];
+				dst[k] = a + (src[offset + i0 + 1] - a) * (i - i0);
+			}
+		}
+    }
+    
+    /*
+     * Like squeeze(): shorter series are copied as they are.
+     * Returns the number of values written to dst.
+     */
+    public static int squeeze(double[] src, int offset, int count,
+    		double[] dst, int size) {
+    	if (count < size) {
+    		System.arraycopy(src, offset, dst, 0, count);
+    		return count;
+    	}
+    	resize(src, offset, count, dst, size);
+    	return size;
+    }
 
 	private static Vector3d getArrayResizeItem(List<Vector3d> a, double i) {
-		if (((i == ((int) i))))
-			return a.get((int) i);
+		final int i0 = (int) i;
+		if (i == i0)
+			return a.get(i0);
 		if (i + 1 >= a.size())
 			return a.get(a.size() - 1);
-		double fPart = i % 1;
-		double x = a.get((int) i).x + (a.get((int) i + 1).x - a.get((int) i).x)
-				* fPart;
-		double y = a.get((int) i).y + (a.get((int) i + 1).y - a.get((int) i).y)
-				* fPart;
-		double z = a.get((int) i).z + (a.get((int) i + 1).z - a.get((int) i).z)
-				* fPart;
-		return new Vector3d(x, y, z);
+		double fPart = i - i0; // same as i % 1, but much cheaper
+		Vector3d v = a.get(i0);
+		Vector3d v1 = a.get(i0 + 1);
+		return new Vector3d(v.x + (v1.x - v.x) * fPart,
+				v.y + (v1.y - v.y) * fPart,
+				v.z + (v1.z - v.z) * fPart);
 	}
 }
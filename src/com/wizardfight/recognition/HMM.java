@@ -1,9 +1,21 @@
 package com.wizardfight.recognition;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.wizardfight.components.BinaryModel;
 
 /**
  * This class acts as the main interface for using a Hidden Markov Model.
+ * The models never change once loaded. Everything a prediction writes
+ * is kept in a Prediction or Stream owned by the caller, so threads
+ * with their own may use one HMM at once.
  */
 public class HMM implements Serializable {
 
@@ -12,42 +24,300 @@ public class HMM implements Serializable {
     private boolean useNullRejection = false; // would be useful if failed gesture detection
 
     private int numClasses;
-    private int predictedClassLabel;
 
-    private double bestDistance; 
-    private double maxLikelihood; 
     // for each model during training
     private int[] classLabels = new int[0];
-    private double[] classLikelihoods = new double[0];
-    private double[] classDistances = new double[0];
     private double[] nullRejectionThresholds;
 
 
     private final ArrayList<HiddenMarkovModel> models = new ArrayList<HiddenMarkovModel>();
 
-    public int getPredictedClassLabel() {
-    	return predictedClassLabel;
+    /*
+     * How a sequence is scored against each class model
+     */
+    public enum Decoding {
+        FORWARD, // likelihood of the sequence summed over all state paths
+        VITERBI  // log probability of the single best state path
     }
 
-    public void predict(int[] timeseries) {
-        final int M = timeseries.length;
-        int[] observationSequence = new int[M];
+    private transient volatile Decoding decoding;
+    private transient volatile boolean parallel;
+
+    // Worker pool shared by all HMMs for scoring classes in parallel,
+    // created on first parallel prediction
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService classPool;
+
+    /*
+     * Class scores of one prediction and the scratch buffers used to get
+     * them. Reusing one Prediction for every gesture of a thread keeps
+     * predictions free of allocations.
+     */
+    public static final class Prediction {
+        private final HiddenMarkovModel.Work[] work;
+        private final double[] classLikelihoods;
+        private final double[] classDistances;
+        private int predictedClassLabel;
+        private int bestIndex;
+        private double bestDistance;
+        private double maxLikelihood;
 
-        System.arraycopy(timeseries, 0, observationSequence, 0, M);
-        
-        if (classLikelihoods.length != numClasses) {
+        // tasks of parallel predictions, created on first use
+        private ArrayList<Runnable> classTasks;
+        private Decoding taskDecoding;
+        private int[] taskSeries;
+        private int taskLength;
+        private CountDownLatch taskDone;
+        private volatile boolean taskCancelled;
+        private volatile RuntimeException taskFailure;
+
+        private Prediction(int numClasses) {
+            // one per model, so that parallel tasks never share one
+            work = new HiddenMarkovModel.Work[numClasses];
+            for (int k = 0; k < numClasses; k++) {
+                work[k] = new HiddenMarkovModel.Work();
+            }
             classLikelihoods = new double[numClasses];
-        }
-        if (classDistances.length != numClasses) {
             classDistances = new double[numClasses];
         }
 
-        bestDistance = -99e+99;
+        public int getPredictedClassLabel() {
+            return predictedClassLabel;
+        }
+
+        /*
+         * Writes the state path of the predicted class model for the
+         * predicted sequence into path and returns its length. In VITERBI
+         * mode this is the best path, in FORWARD mode the most likely
+         * state at each step.
+         */
+        public int getStatePath(int[] path) {
+            return work[bestIndex].getEstimatedStates(path);
+        }
+    }
+
+    /*
+     * Forward variables of every class model for an observation stream
+     */
+    public static final class Stream {
+        private final HiddenMarkovModel.Stream[] streams;
+
+        private Stream(HMM hmm) {
+            streams = new HiddenMarkovModel.Stream[hmm.numClasses];
+            for (int k = 0; k < hmm.numClasses; k++) {
+                streams[k] = hmm.models.get(k).newStream();
+            }
+        }
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        BinaryModel.writeHeader(out, BinaryModel.HMM);
+        out.writeInt(numClasses);
+        out.writeBoolean(useNullRejection);
+        BinaryModel.writeInts(out, classLabels);
+        if (nullRejectionThresholds == null) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(nullRejectionThresholds.length);
+            BinaryModel.writeDoubles(out, nullRejectionThresholds);
+        }
+        for (int k = 0; k < numClasses; k++) {
+            models.get(k).writeTo(out);
+        }
+    }
+
+    public static HMM readFrom(ByteBuffer buf) throws IOException {
+        BinaryModel.readHeader(buf, BinaryModel.HMM);
+        HMM hmm = new HMM();
+        hmm.numClasses = buf.getInt();
+        hmm.useNullRejection = (buf.get() != 0);
+        hmm.classLabels = BinaryModel.readInts(buf, hmm.numClasses);
+        int numThresholds = buf.getInt();
+        if (numThresholds > 0) {
+            hmm.nullRejectionThresholds = BinaryModel.readDoubles(buf, numThresholds);
+        }
+        for (int k = 0; k < hmm.numClasses; k++) {
+            hmm.models.add(HiddenMarkovModel.readFrom(buf));
+        }
+        return hmm;
+    }
+
+    public Prediction newPrediction() {
+        return new Prediction(numClasses);
+    }
+
+    public Stream newStream() {
+        return new Stream(this);
+    }
+
+    public Decoding getDecoding() {
+        Decoding d = decoding;
+        return (d == null) ? Decoding.FORWARD : d;
+    }
+
+    public void setDecoding(Decoding decoding) {
+        this.decoding = decoding;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /*
+     * If set, class models are scored concurrently on a small
+     * worker pool instead of one after another. Off by default, the
+     * hand-off costs more than it saves with few classes; ParallelBench
+     * in tools finds the crossover on a given machine.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /*
+     * Scores the first M observations of timeseries against every model
+     * and classifies them into p, which must come from newPrediction()
+     * of this HMM. The sequence is read in place, so callers may reuse
+     * one buffer for all their predictions. If the thread is interrupted,
+     * scoring stops early and nothing is classified.
+     */
+    public void predict(Prediction p, int[] timeseries, final int M) {
+        final Decoding d = getDecoding();
+        if (parallel && numClasses > 1 && POOL_SIZE > 1) {
+            predictParallel(p, d, timeseries, M);
+        } else {
+            for (int k = 0; k < numClasses && !Thread.currentThread().isInterrupted(); k++) {
+                scoreClass(p, d, k, timeseries, M);
+            }
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        classify(p);
+    }
+
+    private void scoreClass(Prediction p, Decoding d, int k, int[] timeseries, int M) {
+        if (d == Decoding.VITERBI) {
+            p.classDistances[k] = models.get(k).viterbi(timeseries, M, p.work[k]);
+        } else {
+            p.classDistances[k] = models.get(k).predict(timeseries, M, p.work[k]);
+        }
+    }
+
+    /*
+     * Each model is scored with its own Work, so models can be scored
+     * by different threads at once. Classes are dealt round-robin to one
+     * task per pool thread. If the caller is interrupted the tasks stop
+     * after their current class, but the caller still waits for them,
+     * as they write into p. The interrupt status is kept and the
+     * distances are then incomplete.
+     */
+    private void predictParallel(final Prediction p, final Decoding d,
+            int[] timeseries, int M) {
+        if (p.classTasks == null) {
+            final int nTasks = Math.min(POOL_SIZE, numClasses);
+            p.classTasks = new ArrayList<Runnable>(nTasks);
+            for (int c = 0; c < nTasks; c++) {
+                final int firstClass = c;
+                p.classTasks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int k = firstClass; k < numClasses && !p.taskCancelled;
+                                    k += nTasks) {
+                                scoreClass(p, p.taskDecoding, k, p.taskSeries, p.taskLength);
+                            }
+                        } catch (RuntimeException e) {
+                            p.taskFailure = e;
+                        } finally {
+                            p.taskDone.countDown();
+                        }
+                    }
+                });
+            }
+        }
+        p.taskDecoding = d;
+        p.taskSeries = timeseries;
+        p.taskLength = M;
+        p.taskCancelled = false;
+        p.taskFailure = null;
+        p.taskDone = new CountDownLatch(p.classTasks.size());
+        ExecutorService pool = getClassPool();
+        for (Runnable task : p.classTasks) {
+            pool.execute(task);
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                p.taskDone.await();
+                break;
+            } catch (InterruptedException e) {
+                p.taskCancelled = true;
+                interrupted = true;
+            }
+        }
+        p.taskSeries = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (p.taskFailure != null) {
+            throw p.taskFailure;
+        }
+    }
+
+    private static synchronized ExecutorService getClassPool() {
+        if (classPool == null) {
+            classPool = Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "HMM class scoring");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return classPool;
+    }
+
+    /*
+     * Starts a new observation stream in s, which must come from
+     * newStream() of this HMM. Observations are then fed one by one
+     * with streamObservation() while the gesture is recorded.
+     */
+    public void startStream(Stream s) {
+        for (int k = 0; k < numClasses; k++) {
+            s.streams[k].reset();
+        }
+    }
+
+    public void streamObservation(Stream s, int observation) {
+        for (int k = 0; k < numClasses; k++) {
+            models.get(k).step(s.streams[k], observation);
+        }
+    }
+
+    public int getStreamLength(Stream s) {
+        return (numClasses == 0) ? 0 : s.streams[0].getLength();
+    }
+
+    /*
+     * Classifies the streamed observations into p. Gives the same result
+     * as predict() called with the whole sequence in FORWARD mode, but
+     * leaves no state path.
+     */
+    public void finishStream(Stream s, Prediction p) {
+        for (int k = 0; k < numClasses; k++) {
+            p.classDistances[k] = s.streams[k].getDistance();
+        }
+        classify(p);
+    }
+
+    private void classify(Prediction p) {
+        final double[] classDistances = p.classDistances;
+        final double[] classLikelihoods = p.classLikelihoods;
+        double bestDistance = -99e+99;
         int bestIndex = 0;
         double sum = 0;
         for (int k = 0; k < numClasses; k++) {
-            classDistances[k] = models.get(k).predict(observationSequence);
-
             // Set the class likelihood as the antilog of the class distances
             classLikelihoods[k] = antilog(classDistances[k]);
 
@@ -66,8 +336,8 @@ public class HMM implements Serializable {
             classLikelihoods[k] /= sum;
         }
 
-        maxLikelihood = classLikelihoods[bestIndex];
-        predictedClassLabel = classLabels[bestIndex];
+        double maxLikelihood = classLikelihoods[bestIndex];
+        int predictedClassLabel = classLabels[bestIndex];
 
         if (useNullRejection) {
             if (maxLikelihood > nullRejectionThresholds[bestIndex]) {
@@ -76,12 +346,24 @@ public class HMM implements Serializable {
                 predictedClassLabel = 0;
             }
         }
+        p.bestDistance = bestDistance;
+        p.bestIndex = bestIndex;
+        p.maxLikelihood = maxLikelihood;
+        p.predictedClassLabel = predictedClassLabel;
     }
 
     private double antilog(double d) {
         return Math.exp(d);
     }
 
+    int getNumModels() {
+        return models.size();
+    }
+
+    HiddenMarkovModel getModel(int k) {
+        return models.get(k);
+    }
+
     void clear() {
         models.clear();
     }
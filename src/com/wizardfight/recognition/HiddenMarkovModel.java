@@ -1,87 +1,390 @@
 package com.wizardfight.recognition;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import com.wizardfight.components.BinaryModel;
 
 /**
  * This class implements a discrete Hidden Markov Model.
+ * A model never changes once it is loaded. Scratch buffers and
+ * results of scoring live in a Work or Stream owned by the caller,
+ * so one model can be used by several threads at once.
  */
 class HiddenMarkovModel implements Serializable {
 
 	private static final long serialVersionUID = 1L;
+	// the scoring loops look for an interrupt every 16 observations
+	private static final int INTERRUPT_CHECK_MASK = 15;
 	private int numStates = 0; // The number of states for this model
-	private int[] estimatedStates = new int[0];
 
-	private double[] pi; // The state start probability vector
+	double[] pi; // The state start probability vector
 
 	double[][] a; // The transitions probability matrix
 	double[][] b; // The emissions probability matrix
 
-	double predict(int[] obs) {
+	// Flat copies of a and b, built when the model is loaded and never
+	// changed afterwards. Column j of a is stored contiguously at
+	// aT[j*N .. j*N+N-1], and the emissions of all states for symbol k
+	// at bT[k*N .. k*N+N-1]
+	private final transient double[] aT;
+	private final transient double[] bT;
+	// Logarithms of pi, aT and bT for the Viterbi decoder
+	private final transient double[] logPi;
+	private final transient double[] logAT;
+	private final transient double[] logBT;
+
+	/*
+	 * Scratch buffers of one scoring call and the state path it found.
+	 * Buffers only grow, so a Work reused for many calls stops
+	 * allocating after the longest sequence.
+	 */
+	static final class Work {
+		// two rows of alpha (or delta for Viterbi)
+		private double[] prev = new double[0];
+		private double[] cur = new double[0];
+		private int[] estimatedStates = new int[0];
+		// Viterbi back pointers, T rows of N states
+		private int[] backPointers = new int[0];
+		// Length of the sequence last written to estimatedStates
+		private int estimatedLength;
+
+		/*
+		 * Copies the state path of the last call into path
+		 * and returns its length
+		 */
+		int getEstimatedStates(int[] path) {
+			System.arraycopy(estimatedStates, 0, path, 0, estimatedLength);
+			return estimatedLength;
+		}
+
+		private void ensure(int N, int T) {
+			if (cur.length < N) {
+				prev = new double[ N ];
+				cur = new double[ N ];
+			}
+			if (estimatedStates.length < T) {
+				estimatedStates = new int[ T ];
+			}
+		}
+	}
+
+	/*
+	 * Forward variables of an observation stream that is being fed
+	 */
+	static final class Stream {
+		private double[] prev;
+		private double[] cur;
+		private double loglikelihood;
+		private int length;
+
+		private Stream(int N) {
+			prev = new double[ N ];
+			cur = new double[ N ];
+		}
+
+		/*
+		 * Drops the forward variables of the previous stream
+		 */
+		void reset() {
+			loglikelihood = 0.0;
+			length = 0;
+		}
+
+		/*
+		 * Negative log likelihood of the observations streamed so far
+		 */
+		double getDistance() {
+			return -loglikelihood;
+		}
+
+		int getLength() {
+			return length;
+		}
+	}
+
+	/*
+	 * Builds all tables up front, so the model can be published to
+	 * other threads as soon as it is constructed
+	 */
+	private HiddenMarkovModel(double[] pi, double[] flatA, double[] flatB,
+			double[][] a, double[][] b) {
+		final int N = pi.length;
+		numStates = N;
+		this.pi = pi;
+		this.a = a;
+		this.b = b;
+		aT = flatA;
+		bT = flatB;
+		logPi = log(pi);
+		logAT = log(flatA);
+		logBT = log(flatB);
+	}
+
+	/*
+	 * Java serialization only fills pi, a and b,
+	 * so the deserialized model is replaced by a complete one
+	 */
+	private Object readResolve() {
 		final int N = numStates;
-		final int T = obs.length;
-		int t, i, j;
-		double[][] alpha = new double[ T ][ numStates ];
-		double[] c = new double[T];
+		final int numSymbols = b[ 0 ].length;
+		double[] flatA = new double[ N * N ];
+		double[] flatB = new double[ numSymbols * N ];
+		for (int i = 0; i < N; i++) {
+			for (int j = 0; j < N; j++) {
+				flatA[ j * N + i ] = a[ i ][ j ];
+			}
+			for (int k = 0; k < numSymbols; k++) {
+				flatB[ k * N + i ] = b[ i ][ k ];
+			}
+		}
+		return new HiddenMarkovModel(pi, flatA, flatB, a, b);
+	}
+
+	/*
+	 * Writes pi, a and b row by row
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		final int N = numStates;
+		final int numSymbols = bT.length / N;
+		out.writeInt(N);
+		out.writeInt(numSymbols);
+		BinaryModel.writeDoubles(out, pi);
+		for (int i = 0; i < N; i++) {
+			for (int j = 0; j < N; j++) {
+				out.writeDouble(aT[ j * N + i ]);
+			}
+		}
+		for (int i = 0; i < N; i++) {
+			for (int k = 0; k < numSymbols; k++) {
+				out.writeDouble(bT[ k * N + i ]);
+			}
+		}
+	}
+
+	/*
+	 * Reads a model straight into the flat tables
+	 */
+	static HiddenMarkovModel readFrom(ByteBuffer buf) {
+		final int N = buf.getInt();
+		final int numSymbols = buf.getInt();
+		double[] pi = BinaryModel.readDoubles(buf, N);
+		double[] flatA = new double[ N * N ];
+		double[] flatB = new double[ numSymbols * N ];
+		for (int i = 0; i < N; i++) {
+			for (int j = 0; j < N; j++) {
+				flatA[ j * N + i ] = buf.getDouble();
+			}
+		}
+		for (int i = 0; i < N; i++) {
+			for (int k = 0; k < numSymbols; k++) {
+				flatB[ k * N + i ] = buf.getDouble();
+			}
+		}
+		return new HiddenMarkovModel(pi, flatA, flatB, null, null);
+	}
+
+	/*
+	 * Runs the scaled forward algorithm over the first T observations.
+	 * Only two rows of alpha are kept, so no memory is allocated
+	 * unless w meets a longer sequence than before. If the thread is
+	 * interrupted, returns NaN and leaves no state path.
+	 */
+	double predict(int[] obs, final int T, Work w) {
+		w.ensure(numStates, T);
+		final int[] estimatedStates = w.estimatedStates;
+		double[] prev = w.prev;
+		double[] cur = w.cur;
+		double loglikelihood = 0.0;
 
 		// //////////////// Run the forward algorithm ////////////////////////
 		// Step 1: Init at t=0
-		t = 0;
-		c[t] = 0.0;
-		for (i = 0; i < N; i++) {
-			double val = pi[ i ] * b[ i ][ obs[t] ];
-			alpha[ t ][ i ] = val;
-			c[ t ] += val;
+		loglikelihood += init(obs[0], cur);
+		estimatedStates[ 0 ] = argMax(cur);
+
+		// Step 2: Induction
+		for (int t = 1; t < T; t++) {
+			if ((t & INTERRUPT_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+				w.estimatedLength = 0;
+				return Double.NaN;
+			}
+			double[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+			loglikelihood += induction(obs[t], prev, cur);
+			estimatedStates[ t ] = argMax(cur);
 		}
 
-		// Set the inital scaling coeff
-		c[ t ] = 1.0 / c[ t ];
+		w.estimatedLength = T;
 
-		// Scale alpha
-		for (i = 0; i < N; i++) {
-			alpha[ t ][ i ] *= c[ t ];
+		// Termination
+		return -loglikelihood; // Return the negative log likelihood
+	}
+
+	/*
+	 * Log-space Viterbi decoding of the first T observations. Returns the
+	 * log probability of the best state path and stores the path itself
+	 * in w. Returns NaN if the thread is interrupted.
+	 */
+	double viterbi(int[] obs, final int T, Work w) {
+		final int N = numStates;
+		w.ensure(N, T);
+		if (w.backPointers.length < T * N) {
+			w.backPointers = new int[ T * N ];
 		}
+		final double[] logAT = this.logAT;
+		final double[] logBT = this.logBT;
+		final int[] back = w.backPointers;
+		final int[] estimatedStates = w.estimatedStates;
+		double[] prev = w.prev;
+		double[] delta = w.cur;
 
-		// Step 2: Induction
-		for (t = 1; t < T; t++) {
-			c[ t ] = 0.0;
-			for (j = 0; j < N; j++) {
-				alpha[ t ][ j ] = 0.0;
-				for (i = 0; i < N; i++) {
-					alpha[ t ][ j ] += alpha[ t - 1 ][ i ] * a[ i ][ j ];
-				}
+		// Init at t=0
+		int bOffset = obs[0] * N;
+		for (int i = 0; i < N; i++) {
+			delta[ i ] = logPi[ i ] + logBT[ bOffset + i ];
+		}
 
-				alpha[ t ][ j ] *= b[ j ][ obs[t] ];
+		// Recursion
+		for (int t = 1; t < T; t++) {
+			if ((t & INTERRUPT_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+				w.estimatedLength = 0;
+				return Double.NaN;
+			}
+			double[] tmp = prev;
+			prev = delta;
+			delta = tmp;
+			bOffset = obs[t] * N;
+			final int backOffset = t * N;
+			for (int j = 0, aOffset = 0; j < N; j++, aOffset += N) {
+				double best = Double.NEGATIVE_INFINITY;
+				int bestState = 0;
+				for (int i = 0; i < N; i++) {
+					double val = prev[ i ] + logAT[ aOffset + i ];
+					if (val > best) {
+						best = val;
+						bestState = i;
+					}
+				}
+				delta[ j ] = best + logBT[ bOffset + j ];
+				back[ backOffset + j ] = bestState;
+			}
+		}
 
-				c[ t ] += alpha[ t ][ j ];
+		// Termination and path backtracking
+		double best = Double.NEGATIVE_INFINITY;
+		int state = 0;
+		for (int i = 0; i < N; i++) {
+			if (delta[ i ] > best) {
+				best = delta[ i ];
+				state = i;
 			}
+		}
+		estimatedStates[ T - 1 ] = state;
+		for (int t = T - 1; t > 0; t--) {
+			state = back[ t * N + state ];
+			estimatedStates[ t - 1 ] = state;
+		}
+		w.estimatedLength = T;
 
-			// Set the scaling coeff
-			c[ t ] = 1.0 / c[ t ];
+		return best;
+	}
 
-			// Scale Alpha
-			for (j = 0; j < N; j++) {
-				alpha[ t ][ j ] *= c[ t ];
-			}
+	Stream newStream() {
+		return new Stream(numStates);
+	}
+
+	/*
+	 * Advances the stream forward variables by one observation,
+	 * doing exactly the work of one step of predict()
+	 */
+	void step(Stream s, int observation) {
+		if (s.length == 0) {
+			s.loglikelihood += init(observation, s.cur);
+		} else {
+			double[] tmp = s.prev;
+			s.prev = s.cur;
+			s.cur = tmp;
+			s.loglikelihood += induction(observation, s.prev, s.cur);
+		}
+		s.length++;
+	}
+
+	/*
+	 * Fills alpha for t=0 and returns the log of its scaling coeff
+	 */
+	private double init(int obs, double[] alpha) {
+		final int N = numStates;
+		final double[] bT = this.bT;
+		final int bOffset = obs * N;
+		double c = 0.0;
+		for (int i = 0; i < N; i++) {
+			double val = pi[ i ] * bT[ bOffset + i ];
+			alpha[ i ] = val;
+			c += val;
 		}
 
-		if (estimatedStates.length != T) {
-			estimatedStates = new int[ T ];
+		// Set the inital scaling coeff
+		c = 1.0 / c;
+
+		// Scale alpha
+		for (int i = 0; i < N; i++) {
+			alpha[ i ] *= c;
 		}
-		for (t = 0; t < T; t++) {
-			double maxValue = 0;
-			for (i = 0; i < N; i++) {
-				if (alpha[ t ][ i ] > maxValue) {
-					maxValue = alpha[ t ][ i ];
-					estimatedStates[ t ] = i;
-				}
+		return Math.log( c );
+	}
+
+	/*
+	 * Computes alpha from the previous step and returns the log
+	 * of its scaling coeff
+	 */
+	private double induction(int obs, double[] prev, double[] alpha) {
+		final int N = numStates;
+		final double[] aT = this.aT;
+		final double[] bT = this.bT;
+		final int bOffset = obs * N;
+		double c = 0.0;
+		for (int j = 0, aOffset = 0; j < N; j++, aOffset += N) {
+			double sum = 0.0;
+			for (int i = 0; i < N; i++) {
+				sum += prev[ i ] * aT[ aOffset + i ];
 			}
+
+			sum *= bT[ bOffset + j ];
+			alpha[ j ] = sum;
+
+			c += sum;
 		}
 
-		// Termination
-		double loglikelihood = 0.0;
-		for (t = 0; t < T; t++) {
-			loglikelihood += Math.log( c[ t ] );
+		// Set the scaling coeff
+		c = 1.0 / c;
+
+		// Scale Alpha
+		for (int j = 0; j < N; j++) {
+			alpha[ j ] *= c;
 		}
-		return -loglikelihood; // Return the negative log likelihood
+		return Math.log( c );
+	}
+
+	private static double[] log(double[] values) {
+		double[] logs = new double[ values.length ];
+		for (int i = 0; i < values.length; i++) {
+			logs[ i ] = Math.log( values[ i ] );
+		}
+		return logs;
+	}
+
+	private int argMax(double[] alpha) {
+		double maxValue = 0;
+		int state = 0;
+		for (int i = 0; i < numStates; i++) {
+			if (alpha[ i ] > maxValue) {
+				maxValue = alpha[ i ];
+				state = i;
+			}
+		}
+		return state;
 	}
 }
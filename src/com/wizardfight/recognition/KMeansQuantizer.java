@@ -1,8 +1,16 @@
 package com.wizardfight.recognition;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
+import com.wizardfight.components.BinaryModel;
+
+/*
+ * Quantizer is not changed by quantization, so it may be used
+ * by several threads at once
+ */
 public class KMeansQuantizer implements Serializable {
 
     private static final long serialVersionUID = 4L;
@@ -10,8 +18,7 @@ public class KMeansQuantizer implements Serializable {
     private int numClusters; 
     private int numInputDimensions = 0; //TODO set as constant after changing serizalization
     private double[][] clusters;
-    private final ArrayList<Double> featureVector = new ArrayList<Double>();
-    private ArrayList<Double> quantizationDistances = new ArrayList<Double>();
+    private transient volatile KdTree index;
 
     /**
      * Default constructor. Initalizes the KMeansQuantizer, setting the number
@@ -22,38 +29,96 @@ public class KMeansQuantizer implements Serializable {
      */
     public KMeansQuantizer(final int numClusters) {
         this.numClusters = numClusters;
-        featureVector.add(0.0);
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        BinaryModel.writeHeader(out, BinaryModel.QUANTIZER);
+        out.writeInt(numClusters);
+        out.writeInt(numInputDimensions);
+        for (int k = 0; k < numClusters; k++) {
+            BinaryModel.writeDoubles(out, clusters[k]);
+        }
+    }
+
+    public static KMeansQuantizer readFrom(ByteBuffer buf) throws IOException {
+        BinaryModel.readHeader(buf, BinaryModel.QUANTIZER);
+        KMeansQuantizer q = new KMeansQuantizer(buf.getInt());
+        q.numInputDimensions = buf.getInt();
+        q.clusters = new double[q.numClusters][];
+        for (int k = 0; k < q.numClusters; k++) {
+            q.clusters[k] = BinaryModel.readDoubles(buf, q.numInputDimensions);
+        }
+        return q;
+    }
+
+    /*
+     * Builds a k-d tree over the clusters, so quantize() does not
+     * have to scan all of them. Results stay exactly the same.
+     */
+    public void buildIndex() {
+        index = new KdTree(clusters, numInputDimensions);
+    }
+
+    public void dropIndex() {
+        index = null;
+    }
+
+    public int getNumClusters() {
+        return numClusters;
     }
 
     public int quantize(double[] inputVector) {
+        final KdTree index = this.index;
+        if (index != null) {
+            return index.nearest(inputVector, 0);
+        }
+        return nearestCluster(inputVector, 0);
+    }
+
+    /*
+     * Quantizes count vectors stored one after another in samples
+     * (numInputDimensions values each) into out
+     */
+    public void quantize(double[] samples, int count, int[] out) {
+        final KdTree index = this.index;
+        if (index != null) {
+            final KdTree.Search search = index.getSearch();
+            for (int j = 0, offset = 0; j < count; j++, offset += numInputDimensions) {
+                out[j] = index.nearest(samples, offset, search);
+            }
+            return;
+        }
+        for (int j = 0, offset = 0; j < count; j++, offset += numInputDimensions) {
+            out[j] = nearestCluster(samples, offset);
+        }
+    }
+
+    /*
+     * Scans all clusters
+     */
+    private int nearestCluster(double[] v, int offset) {
         // Find the minimum cluster
         double minDist = Double.MAX_VALUE;
         int quantizedValue = 0;
 
         for (int k = 0; k < numClusters; k++) {
-            // Compute the squared Euclidean distance
-            quantizationDistances.add(k, 0.0);
-            for (int i = 0; i < numInputDimensions; i++) {
-                double val = quantizationDistances.get(k);
-                val += Math.pow(inputVector[i] - clusters[k][i], 2);
-                quantizationDistances.set(k, val);
+            final double[] cluster = clusters[k];
+            // Compute the squared Euclidean distance, giving up on
+            // the cluster as soon as it can't be the nearest one
+            double dist = 0.0;
+            int i = 0;
+            while (i < numInputDimensions) {
+                double diff = v[offset + i] - cluster[i];
+                dist += diff * diff;
+                i++;
+                if (dist >= minDist) break;
             }
 
-            if (quantizationDistances.get(k) < minDist) {
-                minDist = quantizationDistances.get(k);
+            if (i == numInputDimensions && dist < minDist) {
+                minDist = dist;
                 quantizedValue = k;
             }
         }
-        featureVector.set(0, (double) quantizedValue);
-
         return quantizedValue;
     }
-    
-    public void refresh() {
-        quantizationDistances = new ArrayList<Double>();
-    }
-
-    public ArrayList<Double> getFeatureVector() {
-        return featureVector;
-    }
 }
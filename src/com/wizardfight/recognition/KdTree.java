@@ -0,0 +1,140 @@
+package com.wizardfight.recognition;
+
+/**
+ * Static k-d tree over the quantizer clusters for exact nearest cluster
+ * search. The tree is implicit: node of a range [lo, hi) of order[] is
+ * its middle element, the left and right halves are its subtrees.
+ * The tree is not changed by searches, each thread searches with
+ * its own Search.
+ */
+class KdTree {
+	private final double[][] points;
+	private final int numDimensions;
+	private final int[] order; // point indices in tree order
+	private final int[] splitDims; // split dimension of each node
+	private final ThreadLocal<Search> searches = new ThreadLocal<Search>() {
+		@Override
+		protected Search initialValue() {
+			return new Search();
+		}
+	};
+
+	/*
+	 * State of one running search
+	 */
+	static final class Search {
+		private double[] query;
+		private int queryOffset;
+		private double bestDist;
+		private int bestIndex;
+	}
+
+	KdTree(double[][] points, int numDimensions) {
+		this.points = points;
+		this.numDimensions = numDimensions;
+		order = new int[ points.length ];
+		splitDims = new int[ points.length ];
+		for (int i = 0; i < order.length; i++) {
+			order[ i ] = i;
+		}
+		build(0, order.length);
+	}
+
+	/*
+	 * Returns the index of the point nearest to the vector stored in v
+	 * starting at offset. Distances are computed like in a brute force
+	 * scan and ties go to the lowest index, so the answer is exactly
+	 * the same.
+	 */
+	int nearest(double[] v, int offset) {
+		return nearest(v, offset, getSearch());
+	}
+
+	/*
+	 * Same as nearest(v, offset), with the search state of the calling
+	 * thread fetched once by the caller
+	 */
+	int nearest(double[] v, int offset, Search s) {
+		s.query = v;
+		s.queryOffset = offset;
+		s.bestDist = Double.MAX_VALUE;
+		s.bestIndex = 0;
+		search(0, order.length, s);
+		s.query = null;
+		return s.bestIndex;
+	}
+
+	Search getSearch() {
+		return searches.get();
+	}
+
+	private void search(int lo, int hi, Search s) {
+		if (lo >= hi) return;
+		final int m = (lo + hi) >>> 1;
+		final int k = order[ m ];
+		final double[] p = points[ k ];
+		final double[] v = s.query;
+		final int offset = s.queryOffset;
+
+		double dist = 0.0;
+		for (int i = 0; i < numDimensions; i++) {
+			double diff = v[ offset + i ] - p[ i ];
+			dist += diff * diff;
+		}
+		if (dist < s.bestDist || (dist == s.bestDist && k < s.bestIndex)) {
+			s.bestDist = dist;
+			s.bestIndex = k;
+		}
+
+		final int d = splitDims[ m ];
+		final double delta = v[ offset + d ] - p[ d ];
+		// visit the query side first, the other one only if
+		// it can hold a point as near as the best one
+		if (delta < 0) {
+			search(lo, m, s);
+			if (delta * delta <= s.bestDist) search(m + 1, hi, s);
+		} else {
+			search(m + 1, hi, s);
+			if (delta * delta <= s.bestDist) search(lo, m, s);
+		}
+	}
+
+	private void build(int lo, int hi) {
+		if (lo >= hi) return;
+		final int d = widestDimension(lo, hi);
+		// sort the range by the split dimension
+		for (int i = lo + 1; i < hi; i++) {
+			int idx = order[ i ];
+			double key = points[ idx ][ d ];
+			int j = i - 1;
+			while (j >= lo && points[ order[ j ] ][ d ] > key) {
+				order[ j + 1 ] = order[ j ];
+				j--;
+			}
+			order[ j + 1 ] = idx;
+		}
+		final int m = (lo + hi) >>> 1;
+		splitDims[ m ] = d;
+		build(lo, m);
+		build(m + 1, hi);
+	}
+
+	private int widestDimension(int lo, int hi) {
+		int widest = 0;
+		double widestSpread = -1.0;
+		for (int d = 0; d < numDimensions; d++) {
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for (int i = lo; i < hi; i++) {
+				double val = points[ order[ i ] ][ d ];
+				if (val < min) min = val;
+				if (val > max) max = val;
+			}
+			if (max - min > widestSpread) {
+				widestSpread = max - min;
+				widest = d;
+			}
+		}
+		return widest;
+	}
+}
@@ -8,6 +8,7 @@ import android.util.Log;
 
 import com.wizardfight.R;
 import com.wizardfight.Shape;
+import com.wizardfight.components.BinaryModel;
 import com.wizardfight.components.Vector3d;
 
 /*
@@ -15,53 +16,204 @@ import com.wizardfight.components.Vector3d;
  */
 public class Recognizer {
 	public final static boolean D = false;
-    private static KMeansQuantizer quantizer;
-    private static HMM hmm;
+    private static volatile KMeansQuantizer quantizer;
+    private static volatile HMM hmm;
     private static final int TRAINED_NUM_CLUSTERS = 20;
+    // below this number of clusters a plain scan beats the k-d tree
+    private static final int INDEX_MIN_CLUSTERS = 48;
+    private static HMM.Decoding decoding = HMM.Decoding.FORWARD;
+    private static boolean parallel = false;
 
-    public static void init(Resources res) {
-		quantizer = new KMeansQuantizer(TRAINED_NUM_CLUSTERS);
-		// Load serialized quantizer
+    // The stream is fed by the sensor thread and consumed by recognize().
+    // It has its own lock, so starting a new stream never waits for
+    // a recognition that is still running.
+    private static final Object streamLock = new Object();
+    private static boolean isStreaming = false;
+    private static HMM streamHmm;
+    private static HMM.Stream stream;
+    private static final double[] streamRec = new double[3];
+    // first and last streamed samples, to tell whose gesture the stream is
+    private static final double[] streamFirst = new double[3];
+    private static final double[] streamLast = new double[3];
+
+    /*
+     * Gesture buffers and scores of the recognitions of one thread,
+     * reused between its recognitions
+     */
+    private static final class Work {
+        private HMM hmm;
+        private HMM.Prediction prediction;
+        private double[] samples = new double[0];
+        private int[] timeSeries = new int[0];
+    }
+
+    private static final ThreadLocal<Work> work = new ThreadLocal<Work>() {
+        @Override
+        protected Work initialValue() {
+            return new Work();
+        }
+    };
+
+    public static synchronized void init(Resources res) {
+		KMeansQuantizer quantizer = null;
 		try {
-			ObjectInputStream is = new ObjectInputStream(
-					res.openRawResource(R.raw.hmm_quantizer));
-			quantizer = (KMeansQuantizer) is.readObject();
-			is.close();
+			quantizer = KMeansQuantizer.readFrom(
+					BinaryModel.load(res, R.raw.hmm_quantizer_flat));
 		} catch (Exception ex) {
-			System.err.println("ERROR: Failed to load quantizer! " + ex);
+			System.err.println("ERROR: Failed to load binary quantizer! " + ex);
+		}
+		if (quantizer == null) {
+			quantizer = new KMeansQuantizer(TRAINED_NUM_CLUSTERS);
+			// Load serialized quantizer
+			try {
+				ObjectInputStream is = new ObjectInputStream(
+						res.openRawResource(R.raw.hmm_quantizer));
+				quantizer = (KMeansQuantizer) is.readObject();
+				is.close();
+			} catch (Exception ex) {
+				System.err.println("ERROR: Failed to load quantizer! " + ex);
+			}
+		}
+		if (quantizer.getNumClusters() >= INDEX_MIN_CLUSTERS) {
+			quantizer.buildIndex();
 		}
 
-		hmm = new HMM();
-		// Load serialized HMM
+		HMM hmm = null;
 		try {
-			ObjectInputStream is = new ObjectInputStream(
-					res.openRawResource(R.raw.hmm_model));
-			hmm = (HMM) is.readObject();
-			is.close();
+			hmm = HMM.readFrom(BinaryModel.load(res, R.raw.hmm_model_flat));
 		} catch (Exception ex) {
-			System.err.println("ERROR: Failed to load hmm! " + ex);
+			System.err.println("ERROR: Failed to load binary hmm! " + ex);
 		}
+		if (hmm == null) {
+			hmm = new HMM();
+			// Load serialized HMM
+			try {
+				ObjectInputStream is = new ObjectInputStream(
+						res.openRawResource(R.raw.hmm_model));
+				hmm = (HMM) is.readObject();
+				is.close();
+			} catch (Exception ex) {
+				System.err.println("ERROR: Failed to load hmm! " + ex);
+			}
+		}
+		hmm.setDecoding(decoding);
+		hmm.setParallel(parallel);
 
+		synchronized (streamLock) {
+			isStreaming = false;
+			Recognizer.quantizer = quantizer;
+			Recognizer.hmm = hmm;
+			streamHmm = hmm;
+			stream = hmm.newStream();
+		}
 	}
 
+    /*
+     * Chooses between the forward algorithm and Viterbi decoding
+     */
+    public static synchronized void setDecoding(HMM.Decoding d) {
+        decoding = d;
+        if (hmm != null) hmm.setDecoding(decoding);
+    }
+
+    /*
+     * Scores the class models on several cores
+     */
+    public static synchronized void setParallel(boolean p) {
+        parallel = p;
+        if (hmm != null) hmm.setParallel(parallel);
+    }
+
+    /*
+     * Starts scoring a new gesture sample by sample,
+     * so recognize() has little left to do once the gesture ends
+     */
+    public static void startStream() {
+        synchronized (streamLock) {
+            if (streamHmm == null) return;
+            streamHmm.startStream(stream);
+            isStreaming = true;
+        }
+    }
+
+    public static void streamSample(double x, double y, double z) {
+        synchronized (streamLock) {
+            if (!isStreaming) return;
+            if (streamHmm.getStreamLength(stream) == 0) {
+                set(streamFirst, x, y, z);
+            }
+            set(streamLast, x, y, z);
+            set(streamRec, x, y, z);
+            streamHmm.streamObservation(stream, quantizer.quantize(streamRec));
+        }
+    }
+
+    private static void set(double[] v, double x, double y, double z) {
+        v[0] = x;
+        v[1] = y;
+        v[2] = z;
+    }
+
+    private static boolean sameSample(double[] v, Vector3d r) {
+        return v[0] == r.x && v[1] == r.y && v[2] == r.z;
+    }
+
+    /*
+     * Safe to call from several threads. A recognition that is cancelled
+     * by an interrupt stops early and returns FAIL.
+     */
     public static Shape recognize(ArrayList<Vector3d> records) {
     	long startStamp = System.currentTimeMillis();
-        quantizer.refresh();
+    	final HMM hmm = Recognizer.hmm;
+    	final int n = records.size();
+    	if (hmm == null || n == 0) return Shape.FAIL;
+    	Work w = work.get();
+    	if (w.hmm != hmm) {
+    		w.hmm = hmm;
+    		w.prediction = hmm.newPrediction();
+    	}
+
+    	// streamed samples are the same as records only if nothing
+    	// was squeezed out of the recorded gesture. A stream of another
+    	// gesture, e.g. one started after these records, is left alone.
+    	synchronized (streamLock) {
+    		if (isStreaming && streamHmm == hmm
+    				&& hmm.getDecoding() == HMM.Decoding.FORWARD
+    				&& hmm.getStreamLength(stream) == n
+    				&& sameSample(streamFirst, records.get(0))
+    				&& sameSample(streamLast, records.get(n - 1))) {
+    			isStreaming = false;
+    			hmm.finishStream(stream, w.prediction);
+    			if (D) Log.e("Wizard Fight Time", "Stream time: " + (System.currentTimeMillis()-startStamp) + " ms");
+    			return getShape(w.prediction.getPredictedClassLabel());
+    		}
+    	}
 
-        int[] timeSeries = new int[ records.size() ];
-        double[] rec = new double[3];
+        if (w.timeSeries.length < n) {
+            w.timeSeries = new int[ n ];
+            w.samples = new double[ 3 * n ];
+        }
+        final double[] samples = w.samples;
         
-        for (int j = 0; j < timeSeries.length ; j++) {
-        	rec[0] = records.get(j).x;
-        	rec[1] = records.get(j).y;
-        	rec[2] = records.get(j).z;
-            timeSeries[j] = quantizer.quantize(rec);
+        for (int j = 0, c = 0; j < n; j++) {
+            Vector3d v = records.get(j);
+            samples[c++] = v.x;
+            samples[c++] = v.y;
+            samples[c++] = v.z;
+        }
+        Recognizer.quantizer.quantize(samples, n, w.timeSeries);
+        if (Thread.currentThread().isInterrupted()) {
+            // recognition was cancelled, nobody waits for the result
+            return Shape.FAIL;
         }
         
-        hmm.predict(timeSeries);
+        hmm.predict(w.prediction, w.timeSeries, n);
+        if (Thread.currentThread().isInterrupted()) {
+            return Shape.FAIL;
+        }
 
         if (D) Log.e("Wizard Fight Time", "Time: " + (System.currentTimeMillis()-startStamp) + " ms");
-        return getShape(hmm.getPredictedClassLabel());
+        return getShape(w.prediction.getPredictedClassLabel());
     }
 
     private static Shape getShape(int val) {
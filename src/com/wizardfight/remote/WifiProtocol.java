@@ -0,0 +1,33 @@
+package com.wizardfight.remote;
+
+/*
+ * Stream format of the pc connection. The phone writes a header,
+ * then frames until the socket is closed:
+ *
+ *   header   'W', 'F', protocol version byte
+ *   frame    u16 length of the rest of the frame, u8 kind, body
+ *
+ * Frame kinds:
+ *   PLAYER_NAME     UTF-8 player name, the first frame
+ *   FIGHT_MESSAGES  fight messages in FightMessageCodec format. Both
+ *                   sides keep one codec state for the connection.
+ *   WIFI_MESSAGE    ordinals of WifiMessage, one byte each
+ *
+ * Receivers skip frames of unknown kinds.
+ */
+public final class WifiProtocol {
+	public static final int PORT = 8880;
+	public static final int VERSION = 1;
+	public static final byte[] MAGIC = { 'W', 'F' };
+	public static final int STREAM_HEADER = MAGIC.length + 1;
+	// length and kind
+	public static final int FRAME_HEADER = 3;
+	public static final int MAX_FRAME_BODY = 1024;
+
+	public static final int KIND_PLAYER_NAME = 0;
+	public static final int KIND_FIGHT_MESSAGES = 1;
+	public static final int KIND_WIFI_MESSAGE = 2;
+
+	private WifiProtocol() {
+	}
+}
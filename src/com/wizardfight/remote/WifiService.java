@@ -1,10 +1,21 @@
 package com.wizardfight.remote;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.wizardfight.FightMessage;
+import com.wizardfight.FightMessage.FightAction;
+import com.wizardfight.FightMessageCodec;
+import com.wizardfight.Shape;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -15,13 +26,14 @@ import android.util.Log;
 /*
  * Class that is responsible for pc connection
  * VIA TCP socket
+ * @see WifiProtocol
  */
 public class WifiService {
 	public final static boolean D = false;
 	public static final int NO_ERROR = 0;
 	public static final int IO_FAIL = 1;
-	public static final int PORT = 8880;
-	private static Worker mWorker;
+	public static final int PORT = WifiProtocol.PORT;
+	private static volatile Worker mWorker;
 	private static String ip;
 	private static Context mContext;
 	
@@ -39,9 +51,18 @@ public class WifiService {
 		}
 	}
 	
-	public static void send(Object obj) {
+	public static void send(WifiMessage msg) {
 		if(mWorker != null) {
-			mWorker.send(obj);
+			mWorker.send(msg);
+		}
+	}
+	
+	/*
+	 * The message is copied, the caller keeps and recycles it
+	 */
+	public static void send(FightMessage msg) {
+		if(mWorker != null) {
+			mWorker.send(FightMessage.obtain(msg));
 		}
 	}
 	
@@ -55,6 +76,63 @@ public class WifiService {
 		mContext = context;
 	}
 	
+	/*
+	 * Messages waiting to be sent to the pc
+	 */
+	public static int getQueueDepth() {
+		Worker w = mWorker;
+		return (w != null) ? w.mmQueueSize.get() : 0;
+	}
+	
+	/*
+	 * Hp and mana updates dropped because the pc did not keep up
+	 */
+	public static int getDropped() {
+		Worker w = mWorker;
+		return (w != null) ? w.mmDropped.get() : 0;
+	}
+	
+	/*
+	 * Messages written per flush
+	 */
+	public static float getAverageBatchSize() {
+		Worker w = mWorker;
+		return (w != null && w.mmBatches > 0)
+				? (float) w.mmBatchedMessages / w.mmBatches : 0;
+	}
+	
+	public static int getMaxBatchSize() {
+		Worker w = mWorker;
+		return (w != null) ? w.mmMaxBatch : 0;
+	}
+	
+	/*
+	 * Time to write and flush a batch, ns
+	 */
+	public static long getAverageFlushTime() {
+		Worker w = mWorker;
+		return (w != null && w.mmBatches > 0) ? w.mmFlushTime / w.mmBatches : 0;
+	}
+	
+	public static long getMaxFlushTime() {
+		Worker w = mWorker;
+		return (w != null) ? w.mmMaxFlushTime : 0;
+	}
+	
+	/*
+	 * Time from send() to the flush that wrote the message, ns
+	 */
+	public static long getAverageLatency() {
+		Worker w = mWorker;
+		return (w != null && w.mmBatchedMessages > 0)
+				? w.mmLatency / w.mmBatchedMessages : 0;
+	}
+	
+	public static long getMaxLatency() {
+		Worker w = mWorker;
+		return (w != null) ? w.mmMaxLatency : 0;
+	}
+	
 	public static void close() {
 		if (D) Log.e("WIFI", "WifiService.close");
 		if(mWorker != null) {
@@ -64,15 +142,55 @@ public class WifiService {
 	}
 	
 	static class Worker extends Thread {
+		// messages waiting for the pc. Past this size superseded hp and
+		// mana updates are dropped, other messages are kept.
+		private static final int MAX_QUEUE = 256;
+		// past this size the pc is taken as gone: the connection is
+		// closed and reported as IO_FAIL, later messages are discarded
+		private static final int MAX_PENDING = 4 * MAX_QUEUE;
+		private static final int BUFFER_SIZE = 4096;
 		private final String mmAddr;
 		private Socket mmSocket;
 		private Handler mmHandler;
-		private final LinkedList<Object> mmQueue;
+		// lock-free, senders never wait for the socket
+		private final ConcurrentLinkedQueue<Pending> mmQueue;
+		private final AtomicInteger mmQueueSize = new AtomicInteger();
+		private final AtomicBoolean mmIsParked = new AtomicBoolean();
+		private volatile boolean mmClosed;
+		private volatile boolean mmOverflowed;
+		// messages are encoded on this thread in the order they are sent
+		private final FightMessageCodec mmEncoder = new FightMessageCodec();
+		private final ByteBuffer mmFrame = ByteBuffer.allocate(
+				WifiProtocol.FRAME_HEADER + WifiProtocol.MAX_FRAME_BODY);
+		private int mmFrameKind = -1;
+		// metrics, written by this thread only
+		private final AtomicInteger mmDropped = new AtomicInteger();
+		private volatile long mmBatches;
+		private volatile long mmBatchedMessages;
+		private volatile int mmMaxBatch;
+		private volatile long mmFlushTime; // ns, all batches
+		private volatile long mmMaxFlushTime;
+		private volatile long mmLatency; // ns, all messages
+		private volatile long mmMaxLatency;
+		
+		/*
+		 * A queued message and the time it was sent
+		 */
+		private static final class Pending {
+			final Object msg;
+			final long time;
+			
+			Pending(Object msg) {
+				this.msg = msg;
+				time = System.nanoTime();
+			}
+		}
 		
 		public Worker(String _addr, Handler handler) {
 			mmAddr = _addr;
 			mmHandler = handler;
-			mmQueue = new LinkedList<Object>();
+			mmQueue = new ConcurrentLinkedQueue<Pending>();
+			setName("Wifi worker");
 		}
 		
 		public void run() {
@@ -81,45 +199,203 @@ public class WifiService {
 				mmSocket = new Socket(serverAddr, PORT);
 				mmSocket.setTcpNoDelay(true);
 				sendMsgToHandler(NO_ERROR);
-				ObjectOutputStream out = 
-						new ObjectOutputStream( mmSocket.getOutputStream() );
+				OutputStream out = new BufferedOutputStream(
+						mmSocket.getOutputStream(), BUFFER_SIZE);
+				mmFrame.put(WifiProtocol.MAGIC).put((byte) WifiProtocol.VERSION);
+				out.write(mmFrame.array(), 0, mmFrame.position());
 
 				// send player name from preferences
 				SharedPreferences appPrefs = PreferenceManager
 						.getDefaultSharedPreferences(mContext);
 				String playerName = appPrefs.getString("player_name", "");
-				out.writeObject(playerName);
+				writeName(out, playerName);
+				out.flush();
 				
-				while(!mmSocket.isClosed()) {
+				while(!mmClosed && !mmSocket.isClosed()) {
 					if (D) Log.e("wifi", "thread loop");
-					while(!mmQueue.isEmpty()) {
-						out.writeObject(mmQueue.poll());
+					Pending p = poll();
+					if (p != null) {
+						writeBatch(out, p);
+						continue;
 					}
-					try {
-						if (D) Log.e("wifi", "sleep");
-						synchronized (this) {
-							wait();
-						}
-						if (D) Log.e("wifi", "wakeup");
-					} catch (InterruptedException e) {
-						e.printStackTrace();
+					if (D) Log.e("wifi", "sleep");
+					mmIsParked.set(true);
+					// a message sent before the flag was set is seen here,
+					// the ones sent after it unpark this thread
+					if (mmQueue.isEmpty() && !mmSocket.isClosed()) {
+						LockSupport.park(this);
 					}
+					mmIsParked.set(false);
+					if (D) Log.e("wifi", "wakeup");
 				}
 			} 
 			catch (IOException e1) {
-				sendMsgToHandler(IO_FAIL);
+				// an overflow has reported the failure already
+				if (!mmOverflowed) sendMsgToHandler(IO_FAIL);
 				if (D) Log.e("WIFI", "--- io exception ---", e1);
 			} finally {
 				close();
+				Pending p;
+				while ((p = poll()) != null) {
+					recycle(p.msg);
+				}
 			}
 		}
 		
-		public synchronized void send(Object obj) {
-			mmQueue.add(obj);
-			notifyAll();
+		/*
+		 * Writes everything queued so far and flushes it at once
+		 */
+		private void writeBatch(OutputStream out, Pending first) throws IOException {
+			long start = System.nanoTime();
+			int count = 0;
+			// the oldest message waited the longest
+			long oldest = first.time;
+			long sentTimes = 0;
+			Pending p = first;
+			do {
+				writeMessage(out, p.msg);
+				sentTimes += p.time - oldest;
+				count++;
+			} while (count < MAX_QUEUE && (p = poll()) != null);
+			endFrame(out);
+			out.flush();
+			
+			long end = System.nanoTime();
+			long time = end - start;
+			mmBatches++;
+			mmBatchedMessages += count;
+			if (count > mmMaxBatch) mmMaxBatch = count;
+			mmFlushTime += time;
+			if (time > mmMaxFlushTime) mmMaxFlushTime = time;
+			mmLatency += count * (end - oldest) - sentTimes;
+			if (end - oldest > mmMaxLatency) mmMaxLatency = end - oldest;
+		}
+		
+		private void writeName(OutputStream out, String name) throws IOException {
+			byte[] bytes;
+			try {
+				bytes = name.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				bytes = new byte[0];
+			}
+			beginFrame(WifiProtocol.KIND_PLAYER_NAME);
+			mmFrame.put(bytes, 0, Math.min(bytes.length, mmFrame.remaining()));
+			endFrame(out);
+		}
+		
+		/*
+		 * Adds the message to the current frame, messages of one kind
+		 * in a row share a frame
+		 */
+		private void writeMessage(OutputStream out, Object obj) throws IOException {
+			int kind = (obj instanceof FightMessage)
+					? WifiProtocol.KIND_FIGHT_MESSAGES : WifiProtocol.KIND_WIFI_MESSAGE;
+			if (kind != mmFrameKind || mmFrame.remaining() < FightMessageCodec.MAX_SIZE) {
+				endFrame(out);
+				beginFrame(kind);
+			}
+			if (obj instanceof FightMessage) {
+				FightMessage msg = (FightMessage) obj;
+				mmEncoder.encode(msg, mmFrame);
+				msg.recycle();
+			} else {
+				mmFrame.put((byte) ((WifiMessage) obj).ordinal());
+			}
+		}
+		
+		private void beginFrame(int kind) {
+			mmFrame.clear();
+			mmFrame.position(2);
+			mmFrame.put((byte) kind);
+			mmFrameKind = kind;
+		}
+		
+		private void endFrame(OutputStream out) throws IOException {
+			if (mmFrameKind < 0) return;
+			mmFrame.putShort(0, (short) (mmFrame.position() - 2));
+			out.write(mmFrame.array(), 0, mmFrame.position());
+			mmFrameKind = -1;
+		}
+		
+		/*
+		 * Called from any thread, never blocks
+		 */
+		public void send(Object obj) {
+			if (mmClosed) {
+				recycle(obj);
+				return;
+			}
+			mmQueue.offer(new Pending(obj));
+			int size = mmQueueSize.incrementAndGet();
+			if (size > MAX_PENDING) {
+				overflow();
+			} else if (size > MAX_QUEUE) {
+				dropSuperseded();
+			}
+			if (mmIsParked.get()) {
+				LockSupport.unpark(this);
+			}
+		}
+		
+		/*
+		 * The pc is behind. Drops the oldest plain hp and mana update that
+		 * has a newer update from the same player queued after it. Updates
+		 * that carry a cast spell shape, fight start and end, buffs and
+		 * wifi messages are not dropped.
+		 */
+		private void dropSuperseded() {
+			// the oldest plain update of the player and of the bot
+			Pending[] oldest = new Pending[2];
+			for (Pending p : mmQueue) {
+				if (!(p.msg instanceof FightMessage)) continue;
+				FightMessage msg = (FightMessage) p.msg;
+				if (msg.mAction != FightAction.NEW_HP_OR_MANA) continue;
+				int player = msg.mIsBotMessage ? 1 : 0;
+				if (oldest[player] == null) {
+					if (msg.mParam == Shape.NONE.ordinal()) {
+						oldest[player] = p;
+					}
+				} else if (mmQueue.remove(oldest[player])) {
+					// the worker did not take it meanwhile
+					mmQueueSize.decrementAndGet();
+					mmDropped.incrementAndGet();
+					recycle(oldest[player].msg);
+					return;
+				} else {
+					// taken by the worker, look for the next one
+					oldest[player] = (msg.mParam == Shape.NONE.ordinal()) ? p : null;
+				}
+			}
+		}
+		
+		/*
+		 * The queue is full of messages that can't be dropped, the pc
+		 * does not read. Closing the socket also wakes a blocked write.
+		 */
+		private synchronized void overflow() {
+			if (mmClosed) return;
+			if (D) Log.e("WIFI", "queue overflow, closing");
+			mmOverflowed = true;
+			close();
+			sendMsgToHandler(IO_FAIL);
+		}
+		
+		private Pending poll() {
+			Pending p = mmQueue.poll();
+			if (p != null) {
+				mmQueueSize.decrementAndGet();
+			}
+			return p;
+		}
+		
+		private static void recycle(Object obj) {
+			if (obj instanceof FightMessage) {
+				((FightMessage) obj).recycle();
+			}
 		}
 		
 		public synchronized void close() {
+			mmClosed = true;
 			if (mmSocket != null) {
 				try {
 					mmSocket.close();
@@ -127,7 +403,7 @@ public class WifiService {
 					e.printStackTrace();
 				}
 			}
-			notifyAll();
+			LockSupport.unpark(this);
 		}
 		
 		public boolean isWorking() {
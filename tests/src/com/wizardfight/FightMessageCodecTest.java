@@ -0,0 +1,287 @@
+package com.wizardfight;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.wizardfight.FightMessage.FightAction;
+import com.wizardfight.FightMessage.Target;
+
+/*
+ * Round-trips fight messages through the wire format and checks
+ * that broken input is rejected instead of decoded
+ */
+public class FightMessageCodecTest extends TestCase {
+	private static final int MESSAGES = 20000;
+	private static final Target[] TARGETS = Target.values();
+	private static final FightAction[] ACTIONS = FightAction.values();
+
+	private final FightMessageCodec encoder = new FightMessageCodec();
+	private final FightMessageCodec decoder = new FightMessageCodec();
+	private final ByteBuffer buffer = ByteBuffer.allocate(FightMessageCodec.MAX_SIZE);
+
+	public void testRandomRoundTrip() throws IOException {
+		Random random = new Random(1);
+		for (int i = 0; i < MESSAGES; i++) {
+			FightMessage m = randomMessage(random);
+			assertSameMessage(m, roundTrip(m));
+		}
+	}
+
+	/*
+	 * Values far outside the game range must survive as well
+	 */
+	public void testExtremeValues() throws IOException {
+		int[] values = { Integer.MIN_VALUE, -65536, -2, -1, 0, 1, 127, 128, 65535, Integer.MAX_VALUE };
+		for (int v : values) {
+			FightMessage m = new FightMessage(Target.ENEMY, FightAction.NEW_HP_OR_MANA, v);
+			m.mHealth = v;
+			m.mMana = -v;
+			assertSameMessage(m, roundTrip(m));
+		}
+	}
+
+	public void testUnchangedValuesAreOmitted() throws IOException {
+		FightMessage m = message(FightAction.DAMAGE, 100, 50);
+		byte[] first = encode(encoder, m);
+		byte[] second = encode(encoder, m);
+		// header and action only
+		assertEquals(2, second.length);
+		assertTrue(first.length > second.length);
+
+		// the decoder fills in the omitted values
+		FightMessage decoded = new FightMessage(Target.SELF, FightAction.NONE);
+		assertTrue(decoder.decode(ByteBuffer.wrap(first), decoded));
+		assertTrue(decoder.decode(ByteBuffer.wrap(second), decoded));
+		assertSameMessage(m, decoded);
+	}
+
+	/*
+	 * Health and mana change independently, go back to earlier values
+	 * and to zero, as they do between fights
+	 */
+	public void testDeltaAcrossResets() throws IOException {
+		int[][] values = {
+				{ 200, 100 }, { 180, 100 }, { 180, 85 }, { 0, 85 }, { 0, 0 },
+				{ 200, 100 }, { 200, 100 }, { 0, 100 }, { 200, 0 }, { 200, 100 } };
+		FightAction[] actions = { FightAction.DAMAGE, FightAction.FIGHT_END,
+				FightAction.FIGHT_START, FightAction.NEW_HP_OR_MANA };
+		for (int i = 0; i < values.length; i++) {
+			FightMessage m = message(actions[i % actions.length], values[i][0], values[i][1]);
+			assertSameMessage(m, roundTrip(m));
+		}
+	}
+
+	/*
+	 * After reset both sides start over, so the first message
+	 * carries the values again even if they did not change
+	 */
+	public void testCodecReset() throws IOException {
+		FightMessage m = message(FightAction.DAMAGE, 150, 60);
+		assertSameMessage(m, roundTrip(m));
+		encoder.reset();
+		decoder.reset();
+		byte[] bytes = encode(encoder, m);
+		assertEquals(2, Integer.bitCount(bytes[0] & 0x6));
+		FightMessage decoded = new FightMessage(Target.SELF, FightAction.NONE);
+		assertTrue(decoder.decode(ByteBuffer.wrap(bytes), decoded));
+		assertSameMessage(m, decoded);
+
+		// a fresh decoder can't use a message that relies on old values
+		FightMessageCodec fresh = new FightMessageCodec();
+		try {
+			fresh.decode(ByteBuffer.wrap(encode(encoder, m)), decoded);
+			fail("decoded a message without health and mana");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testVersionBits() throws IOException {
+		byte[] bytes = encode(encoder, message(FightAction.DAMAGE, 10, 20));
+		assertEquals(FightMessageCodec.VERSION, (bytes[0] & 0xFF) >>> 6);
+		for (int version = 0; version < 4; version++) {
+			if (version == FightMessageCodec.VERSION) continue;
+			byte[] other = bytes.clone();
+			other[0] = (byte) ((other[0] & 0x3F) | (version << 6));
+			try {
+				new FightMessageCodec().decode(ByteBuffer.wrap(other),
+						new FightMessage(Target.SELF, FightAction.NONE));
+				fail("decoded version " + version);
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	/*
+	 * Fields appended by a later version are skipped, and the message
+	 * after them decodes normally
+	 */
+	public void testExtensionIsSkipped() throws IOException {
+		FightMessage first = message(FightAction.BUFF_ON, 90, 40);
+		first.mParam = 2;
+		FightMessage second = message(FightAction.HEAL, 95, 30);
+		byte[] a = encode(encoder, first);
+		byte[] b = encode(encoder, second);
+		byte[] extension = { 1, 2, 3, (byte) 0xFF, (byte) 0x80 };
+
+		ByteBuffer in = ByteBuffer.allocate(a.length + 1 + extension.length + b.length);
+		in.put((byte) (a[0] | 1 << 5));
+		in.put(a, 1, a.length - 1);
+		in.put((byte) extension.length);
+		in.put(extension);
+		in.put(b);
+		in.flip();
+
+		FightMessage decoded = new FightMessage(Target.SELF, FightAction.NONE);
+		assertTrue(decoder.decode(in, decoded));
+		assertSameMessage(first, decoded);
+		assertTrue(decoder.decode(in, decoded));
+		assertSameMessage(second, decoded);
+		assertFalse(in.hasRemaining());
+	}
+
+	public void testExtensionLongerThanInput() {
+		byte[] a = encode(encoder, message(FightAction.DAMAGE, 10, 20));
+		ByteBuffer in = ByteBuffer.allocate(a.length + 3);
+		in.put((byte) (a[0] | 1 << 5));
+		in.put(a, 1, a.length - 1);
+		in.put((byte) 10);
+		in.put((byte) 1);
+		in.put((byte) 2);
+		in.flip();
+		try {
+			decoder.decode(in, new FightMessage(Target.SELF, FightAction.NONE));
+			fail("decoded a truncated extension");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/*
+	 * An action added by a later version is skipped, not fatal
+	 */
+	public void testUnknownActionIsSkipped() throws IOException {
+		FightMessage m = message(FightAction.DAMAGE, 10, 20);
+		byte[] bytes = encode(encoder, m);
+		bytes[1] = (byte) ACTIONS.length;
+		ByteBuffer in = ByteBuffer.allocate(bytes.length + 8);
+		in.put(bytes);
+		in.put(encode(encoder, m));
+		in.flip();
+		FightMessage decoded = new FightMessage(Target.SELF, FightAction.NONE);
+		assertFalse(decoder.decode(in, decoded));
+		assertTrue(decoder.decode(in, decoded));
+		assertSameMessage(m, decoded);
+	}
+
+	public void testTruncatedInputIsRejected() {
+		Random random = new Random(2);
+		for (int i = 0; i < MESSAGES / 10; i++) {
+			FightMessage m = randomMessage(random);
+			byte[] bytes = encode(new FightMessageCodec(), m);
+			for (int length = 0; length < bytes.length; length++) {
+				ByteBuffer in = ByteBuffer.wrap(bytes, 0, length);
+				try {
+					new FightMessageCodec().decode(in, new FightMessage(Target.SELF, FightAction.NONE));
+					fail("decoded " + length + " of " + bytes.length + " bytes");
+				} catch (IOException e) {
+					// expected
+				} catch (BufferUnderflowException e) {
+					// expected
+				}
+			}
+		}
+	}
+
+	/*
+	 * Random bytes may decode to some message, but they must never
+	 * raise anything else than the two expected exceptions
+	 */
+	public void testGarbageInput() {
+		Random random = new Random(3);
+		byte[] bytes = new byte[ 32 ];
+		FightMessage decoded = new FightMessage(Target.SELF, FightAction.NONE);
+		for (int i = 0; i < MESSAGES; i++) {
+			random.nextBytes(bytes);
+			ByteBuffer in = ByteBuffer.wrap(bytes, 0, 1 + random.nextInt(bytes.length));
+			FightMessageCodec codec = new FightMessageCodec();
+			try {
+				while (in.hasRemaining()) {
+					codec.decode(in, decoded);
+				}
+			} catch (IOException e) {
+				// expected
+			} catch (BufferUnderflowException e) {
+				// expected
+			}
+		}
+	}
+
+	public void testMalformedVarint() {
+		byte[] bytes = { (byte) (FightMessageCodec.VERSION << 6 | 0x6),
+				(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0, 0, 0 };
+		try {
+			decoder.decode(ByteBuffer.wrap(bytes), new FightMessage(Target.SELF, FightAction.NONE));
+			fail("decoded a six byte varint");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private FightMessage roundTrip(FightMessage m) throws IOException {
+		buffer.clear();
+		encoder.encode(m, buffer);
+		buffer.flip();
+		FightMessage decoded = new FightMessage(Target.SELF, FightAction.NONE);
+		assertTrue(decoder.decode(buffer, decoded));
+		assertFalse(buffer.hasRemaining());
+		return decoded;
+	}
+
+	private int encodedSize(FightMessage m) {
+		return encode(encoder, m).length;
+	}
+
+	private static byte[] encode(FightMessageCodec codec, FightMessage m) {
+		ByteBuffer out = ByteBuffer.allocate(FightMessageCodec.MAX_SIZE);
+		codec.encode(m, out);
+		byte[] bytes = new byte[ out.position() ];
+		out.flip();
+		out.get(bytes);
+		return bytes;
+	}
+
+	private static FightMessage message(FightAction action, int health, int mana) {
+		FightMessage m = new FightMessage(Target.SELF, action);
+		m.mHealth = health;
+		m.mMana = mana;
+		return m;
+	}
+
+	/*
+	 * Mostly game-like values, sometimes any int
+	 */
+	private static FightMessage randomMessage(Random random) {
+		FightMessage m = new FightMessage(TARGETS[ random.nextInt(TARGETS.length) ],
+				ACTIONS[ random.nextInt(ACTIONS.length) ], random.nextInt(8) - 1);
+		if (random.nextInt(10) == 0) m.mParam = random.nextInt();
+		m.mHealth = (random.nextInt(10) == 0) ? random.nextInt() : random.nextInt(201);
+		m.mMana = (random.nextInt(10) == 0) ? random.nextInt() : random.nextInt(201);
+		m.mIsBotMessage = random.nextBoolean();
+		return m;
+	}
+
+	private static void assertSameMessage(FightMessage expected, FightMessage actual) {
+		assertEquals(expected.mTarget, actual.mTarget);
+		assertEquals(expected.mAction, actual.mAction);
+		assertEquals(expected.mParam, actual.mParam);
+		assertEquals(expected.mHealth, actual.mHealth);
+		assertEquals(expected.mMana, actual.mMana);
+		assertEquals(expected.mIsBotMessage, actual.mIsBotMessage);
+	}
+}
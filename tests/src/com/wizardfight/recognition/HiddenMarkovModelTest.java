@@ -0,0 +1,158 @@
+package com.wizardfight.recognition;
+
+import java.io.ObjectInputStream;
+import java.util.Random;
+
+import android.content.res.Resources;
+import android.test.InstrumentationTestCase;
+
+import com.wizardfight.R;
+import com.wizardfight.components.BinaryModel;
+
+/*
+ * Checks the two-row forward pass against the full-matrix forward
+ * algorithm it replaced, on the shipped models
+ */
+public class HiddenMarkovModelTest extends InstrumentationTestCase {
+	private static final int SEQUENCES = 200;
+	private static final int MAX_LENGTH = 150;
+
+	private HMM serialized;
+	private HMM flat;
+	private final HiddenMarkovModel.Work work = new HiddenMarkovModel.Work();
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		Resources res = getInstrumentation().getTargetContext().getResources();
+		ObjectInputStream is = new ObjectInputStream(res.openRawResource(R.raw.hmm_model));
+		try {
+			serialized = (HMM) is.readObject();
+		} finally {
+			is.close();
+		}
+		flat = HMM.readFrom(BinaryModel.load(res, R.raw.hmm_model_flat));
+	}
+
+	public void testForwardMatchesFullMatrix() {
+		Random random = new Random(1);
+		for (int k = 0; k < serialized.getNumModels(); k++) {
+			HiddenMarkovModel m = serialized.getModel(k);
+			for (int s = 0; s < SEQUENCES; s++) {
+				int[] obs = randomSequence(random, m, 1 + random.nextInt(MAX_LENGTH));
+				assertSameForward(m, obs, obs.length);
+			}
+		}
+	}
+
+	/*
+	 * Short sequences after long ones reuse the grown buffers,
+	 * and observations past T must be ignored
+	 */
+	public void testReusedBuffersAndLength() {
+		Random random = new Random(2);
+		for (int k = 0; k < serialized.getNumModels(); k++) {
+			HiddenMarkovModel m = serialized.getModel(k);
+			int[] obs = randomSequence(random, m, MAX_LENGTH);
+			for (int T = MAX_LENGTH; T > 0; T -= 7) {
+				assertSameForward(m, obs, T);
+			}
+		}
+	}
+
+	public void testBinaryModelMatchesSerialized() {
+		assertEquals(serialized.getNumModels(), flat.getNumModels());
+		Random random = new Random(3);
+		for (int k = 0; k < serialized.getNumModels(); k++) {
+			HiddenMarkovModel m = serialized.getModel(k);
+			for (int s = 0; s < SEQUENCES; s++) {
+				int[] obs = randomSequence(random, m, 1 + random.nextInt(MAX_LENGTH));
+				assertBitEquals(forward(m, obs, obs.length, new int[ obs.length ]),
+						flat.getModel(k).predict(obs, obs.length, work));
+			}
+		}
+	}
+
+	private void assertSameForward(HiddenMarkovModel m, int[] obs, int T) {
+		int[] expectedStates = new int[ T ];
+		double expected = forward(m, obs, T, expectedStates);
+		assertBitEquals(expected, m.predict(obs, T, work));
+
+		int[] states = new int[ MAX_LENGTH ];
+		assertEquals(T, work.getEstimatedStates(states));
+		for (int t = 0; t < T; t++) {
+			assertEquals(expectedStates[ t ], states[ t ]);
+		}
+	}
+
+	private static void assertBitEquals(double expected, double actual) {
+		assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+	}
+
+	private static int[] randomSequence(Random random, HiddenMarkovModel m, int T) {
+		final int numSymbols = m.b[ 0 ].length;
+		int[] obs = new int[ T ];
+		for (int t = 0; t < T; t++) {
+			obs[ t ] = random.nextInt(numSymbols);
+		}
+		return obs;
+	}
+
+	/*
+	 * The forward pass as it was before the rolling buffers: a full
+	 * T x N alpha matrix and a scaling vector per call
+	 */
+	private static double forward(HiddenMarkovModel m, int[] obs, int T, int[] estimatedStates) {
+		final double[] pi = m.pi;
+		final double[][] a = m.a;
+		final double[][] b = m.b;
+		final int N = a.length;
+		int t, i, j;
+		double[][] alpha = new double[ T ][ N ];
+		double[] c = new double[T];
+
+		t = 0;
+		c[t] = 0.0;
+		for (i = 0; i < N; i++) {
+			double val = pi[ i ] * b[ i ][ obs[t] ];
+			alpha[ t ][ i ] = val;
+			c[ t ] += val;
+		}
+		c[ t ] = 1.0 / c[ t ];
+		for (i = 0; i < N; i++) {
+			alpha[ t ][ i ] *= c[ t ];
+		}
+
+		for (t = 1; t < T; t++) {
+			c[ t ] = 0.0;
+			for (j = 0; j < N; j++) {
+				alpha[ t ][ j ] = 0.0;
+				for (i = 0; i < N; i++) {
+					alpha[ t ][ j ] += alpha[ t - 1 ][ i ] * a[ i ][ j ];
+				}
+				alpha[ t ][ j ] *= b[ j ][ obs[t] ];
+				c[ t ] += alpha[ t ][ j ];
+			}
+			c[ t ] = 1.0 / c[ t ];
+			for (j = 0; j < N; j++) {
+				alpha[ t ][ j ] *= c[ t ];
+			}
+		}
+
+		for (t = 0; t < T; t++) {
+			double maxValue = 0;
+			for (i = 0; i < N; i++) {
+				if (alpha[ t ][ i ] > maxValue) {
+					maxValue = alpha[ t ][ i ];
+					estimatedStates[ t ] = i;
+				}
+			}
+		}
+
+		double loglikelihood = 0.0;
+		for (t = 0; t < T; t++) {
+			loglikelihood += Math.log( c[ t ] );
+		}
+		return -loglikelihood;
+	}
+}
@@ -0,0 +1,160 @@
+package com.wizardfight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.wizardfight.FightMessage.FightAction;
+import com.wizardfight.FightMessage.Target;
+import com.wizardfight.components.Bench;
+
+/*
+ * Bytes and time per fight message on the Bluetooth link: the varint
+ * FightMessageCodec against the fixed 9-byte layout it replaced
+ * (target, action, 16-bit param, health and mana, bot flag). Both
+ * write into one buffer, without the per-message arrays and objects of
+ * the old getBytes/fromBytes. Times are encode plus decode of the
+ * whole stream. Two streams are measured: a simulated fight, where
+ * health and mana change on some messages only, and random values,
+ * where they change on every message.
+ *   CodecBench [messages]
+ */
+public class CodecBench {
+	private static final int OLD_SIZE = 9;
+	private static final Target[] TARGETS = Target.values();
+	private static final FightAction[] ACTIONS = FightAction.values();
+
+	public static void main(String[] args) throws IOException {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		System.out.println(count + " fight messages");
+		run("fight", fight(count, new Random(1)));
+		run("random", random(count, new Random(2)));
+	}
+
+	private static void run(String name, final FightMessage[] messages) throws IOException {
+		final ByteBuffer fixed = ByteBuffer.allocate(OLD_SIZE * messages.length);
+		final ByteBuffer varint = ByteBuffer.allocate(FightMessageCodec.MAX_SIZE * messages.length);
+		final FightMessage decoded = new FightMessage(Target.SELF, FightAction.NONE);
+
+		long oldTime = Bench.best(new Bench.Task() {
+			public double run() {
+				fixed.clear();
+				for (FightMessage m : messages) {
+					putFixed(m, fixed);
+				}
+				fixed.flip();
+				double sum = 0;
+				while (fixed.hasRemaining()) {
+					getFixed(fixed, decoded);
+					sum += decoded.mHealth;
+				}
+				return sum;
+			}
+		});
+		long newTime = Bench.best(new Bench.Task() {
+			public double run() {
+				FightMessageCodec encoder = new FightMessageCodec();
+				FightMessageCodec decoder = new FightMessageCodec();
+				varint.clear();
+				for (FightMessage m : messages) {
+					encoder.encode(m, varint);
+				}
+				varint.flip();
+				double sum = 0;
+				try {
+					while (varint.hasRemaining()) {
+						decoder.decode(varint, decoded);
+						sum += decoded.mHealth;
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+				return sum;
+			}
+		});
+
+		System.out.println(name + ":");
+		print("9-byte", fixed.limit(), oldTime, messages.length);
+		print("varint", varint.limit(), newTime, messages.length);
+		check(messages, varint);
+	}
+
+	private static void print(String name, int size, long time, int count) {
+		System.out.println(String.format("  %-7s %4.1f bytes/msg %5d ns/msg",
+				name, (double) size / count, time / count));
+	}
+
+	private static void check(FightMessage[] messages, ByteBuffer varint) throws IOException {
+		FightMessageCodec decoder = new FightMessageCodec();
+		FightMessage decoded = new FightMessage(Target.SELF, FightAction.NONE);
+		int mismatches = 0;
+		varint.rewind();
+		for (FightMessage m : messages) {
+			decoder.decode(varint, decoded);
+			if (decoded.mTarget != m.mTarget || decoded.mAction != m.mAction
+					|| decoded.mParam != m.mParam || decoded.mHealth != m.mHealth
+					|| decoded.mMana != m.mMana || decoded.mIsBotMessage != m.mIsBotMessage) {
+				mismatches++;
+			}
+		}
+		System.out.println("  varint mismatches " + mismatches);
+	}
+
+	/*
+	 * Both players cast in turns: about a third of the messages hit
+	 * health, mana drops with every spell and regenerates slowly
+	 */
+	private static FightMessage[] fight(int count, Random random) {
+		FightMessage[] messages = new FightMessage[count];
+		int health = 200, mana = 100;
+		for (int i = 0; i < count; i++) {
+			if (health <= 0) {
+				health = 200;
+				mana = 100;
+			}
+			FightAction action = ACTIONS[ random.nextInt(ACTIONS.length) ];
+			if (random.nextInt(3) == 0) health -= random.nextInt(30);
+			if (random.nextInt(2) == 0) mana = Math.max(0, Math.min(100, mana + random.nextInt(21) - 10));
+			FightMessage m = new FightMessage(TARGETS[ random.nextInt(TARGETS.length) ],
+					action, random.nextInt(8) - 1);
+			m.mHealth = Math.max(health, 0);
+			m.mMana = mana;
+			messages[i] = m;
+		}
+		return messages;
+	}
+
+	private static FightMessage[] random(int count, Random random) {
+		FightMessage[] messages = new FightMessage[count];
+		for (int i = 0; i < count; i++) {
+			FightMessage m = new FightMessage(TARGETS[ random.nextInt(TARGETS.length) ],
+					ACTIONS[ random.nextInt(ACTIONS.length) ], random.nextInt(8) - 1);
+			m.mHealth = random.nextInt(201);
+			m.mMana = random.nextInt(101);
+			m.mIsBotMessage = random.nextInt(10) == 0;
+			messages[i] = m;
+		}
+		return messages;
+	}
+
+	/*
+	 * FightMessage.getBytes and fromBytes before the codec
+	 */
+	private static void putFixed(FightMessage m, ByteBuffer out) {
+		out.put((byte) m.mTarget.ordinal());
+		out.put((byte) m.mAction.ordinal());
+		out.putShort((short) m.mParam);
+		out.putShort((short) m.mHealth);
+		out.putShort((short) m.mMana);
+		out.put(m.mIsBotMessage ? (byte) 1 : (byte) 0);
+	}
+
+	private static void getFixed(ByteBuffer in, FightMessage m) {
+		Target target = TARGETS[ in.get() ];
+		FightAction action = ACTIONS[ in.get() ];
+		m.set(target, action, in.getShort());
+		m.mHealth = in.getShort();
+		m.mMana = in.getShort();
+		m.mIsBotMessage = in.get() == 1;
+	}
+}
@@ -0,0 +1,103 @@
+package com.wizardfight;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import com.wizardfight.FightMessage.FightAction;
+import com.wizardfight.FightMessage.Target;
+import com.wizardfight.components.Bench;
+
+/*
+ * Allocated bytes and time per fight message on the way through the
+ * link: create, encode, decode, drop. The pooled path takes both
+ * messages from FightMessage.obtain() and recycles them, the plain path
+ * creates them with new, as before the pool. Allocations are counted
+ * with the HotSpot thread counter after a warm-up, so the JIT has
+ * already removed what escape analysis can remove.
+ *   PoolBench [messages]
+ */
+public class PoolBench {
+	private static final Target[] TARGETS = Target.values();
+	private static final FightAction[] ACTIONS = FightAction.values();
+
+	public static void main(String[] args) {
+		final int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		final ByteBuffer buffer = ByteBuffer.allocate(FightMessageCodec.MAX_SIZE);
+		final FightMessageCodec encoder = new FightMessageCodec();
+		final FightMessageCodec decoder = new FightMessageCodec();
+
+		Bench.Task pooled = new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (int i = 0; i < count; i++) {
+					FightMessage m = FightMessage.obtain(TARGETS[ i & 1 ],
+							ACTIONS[ i % ACTIONS.length ], i % 7 - 1);
+					m.mHealth = 200 - i % 200;
+					m.mMana = i % 100;
+					buffer.clear();
+					encoder.encode(m, buffer);
+					m.recycle();
+					buffer.flip();
+					FightMessage decoded = decode(decoder, buffer);
+					sum += decoded.mHealth;
+					decoded.recycle();
+				}
+				return sum;
+			}
+		};
+		Bench.Task plain = new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (int i = 0; i < count; i++) {
+					FightMessage m = new FightMessage(TARGETS[ i & 1 ],
+							ACTIONS[ i % ACTIONS.length ], i % 7 - 1);
+					m.mHealth = 200 - i % 200;
+					m.mMana = i % 100;
+					buffer.clear();
+					encoder.encode(m, buffer);
+					buffer.flip();
+					FightMessage decoded = new FightMessage(Target.SELF, FightAction.NONE);
+					try {
+						decoder.decode(buffer, decoded);
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+					sum += decoded.mHealth;
+				}
+				return sum;
+			}
+		};
+
+		System.out.println(count + " fight messages");
+		print("new", plain, count);
+		print("pooled", pooled, count);
+	}
+
+	private static FightMessage decode(FightMessageCodec decoder, ByteBuffer in) {
+		try {
+			return decoder.decode(in);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void print(String name, Bench.Task task, int count) {
+		long time = Bench.best(task);
+		long bytes = allocatedBytes(task);
+		System.out.println(String.format("  %-7s %6.1f bytes/msg %4d ns/msg",
+				name, (double) bytes / count, time / count));
+	}
+
+	/*
+	 * Bytes allocated by this thread during one run of the task
+	 */
+	private static long allocatedBytes(Bench.Task task) {
+		com.sun.management.ThreadMXBean bean =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		long before = bean.getThreadAllocatedBytes(id);
+		Bench.sink += task.run();
+		return bean.getThreadAllocatedBytes(id) - before;
+	}
+}
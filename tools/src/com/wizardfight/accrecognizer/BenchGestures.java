@@ -0,0 +1,72 @@
+package com.wizardfight.accrecognizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.wizardfight.accrecognizer.AccRecognizer.Speed;
+import com.wizardfight.components.Bench;
+import com.wizardfight.components.BinaryModel;
+import com.wizardfight.components.Vector3d;
+
+/*
+ * Gestures for the benchmarks: shape templates of the shipped model
+ * stretched to a random length, with noise added to every point
+ */
+public class BenchGestures {
+	public static final int MIN_LENGTH = 20;
+	public static final int MAX_LENGTH = 120;
+	// standard deviation of the noise, m/s^2
+	static final double MAX_NOISE = 2;
+
+	static AccRecognizer readRecognizer(File dir) throws IOException {
+		return AccRecognizer.readFrom(Bench.readModel(dir, "acc_model_flat.ogg"));
+	}
+
+	static ArrayList<ArrayList<Vector3d>> make(File dir, int count, Random random)
+			throws IOException {
+		return make(dir, count, random, null);
+	}
+
+	/*
+	 * Adds the template name of every gesture to names, if not null
+	 */
+	public static ArrayList<ArrayList<Vector3d>> make(File dir, int count, Random random,
+			ArrayList<String> names) throws IOException {
+		// read the speed models on their own, AccRecognizer keeps them private
+		ByteBuffer buf = Bench.readModel(dir, "acc_model_flat.ogg");
+		BinaryModel.readHeader(buf, BinaryModel.ACC);
+		int numSpeeds = buf.getInt();
+		SpeedModel[] models = new SpeedModel[numSpeeds];
+		for (int i = 0; i < numSpeeds; i++) {
+			Speed speed = Speed.valueOf(BinaryModel.readString(buf));
+			models[i] = SpeedModel.readFrom(buf, speed);
+		}
+
+		ArrayList<ArrayList<Vector3d>> gestures = new ArrayList<ArrayList<Vector3d>>(count);
+		for (int g = 0; g < count; g++) {
+			SpeedModel model = models[random.nextInt(numSpeeds)];
+			SpeedModel.Templates tpl = model.getTemplates();
+			int size = model.getSpeed().size;
+			int shape = random.nextInt(tpl.names.length);
+			int offset = shape * size;
+			ArrayList<Vector3d> template = new ArrayList<Vector3d>(size);
+			for (int i = offset; i < offset + size; i++) {
+				template.add(new Vector3d(tpl.x[i], tpl.y[i], tpl.z[i]));
+			}
+			int length = MIN_LENGTH + random.nextInt(MAX_LENGTH - MIN_LENGTH + 1);
+			double noise = random.nextDouble() * MAX_NOISE;
+			ArrayList<Vector3d> gesture = Vector3d.resize(template, length);
+			for (Vector3d v : gesture) {
+				v.x += random.nextGaussian() * noise;
+				v.y += random.nextGaussian() * noise;
+				v.z += random.nextGaussian() * noise;
+			}
+			gestures.add(gesture);
+			if (names != null) names.add(tpl.names[shape]);
+		}
+		return gestures;
+	}
+}
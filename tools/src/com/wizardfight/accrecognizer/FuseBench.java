@@ -0,0 +1,61 @@
+package com.wizardfight.accrecognizer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.wizardfight.components.Bench;
+import com.wizardfight.components.Vector3d;
+
+/*
+ * Cost of scoring every speed bucket (AccRecognition.setFuseSpeeds)
+ * against scoring the nearest one, for both engines. Counts the
+ * gestures where fusing changes the shape.
+ *   FuseBench [path to res/raw]
+ */
+public class FuseBench {
+	private static final int GESTURES = 500;
+
+	public static void main(String[] args) throws Exception {
+		File dir = Bench.rawDir(args);
+		final AccRecognizer recognizer = BenchGestures.readRecognizer(dir);
+		final ArrayList<ArrayList<Vector3d>> gestures =
+				BenchGestures.make(dir, GESTURES, new Random(42));
+
+		System.out.println(GESTURES + " gestures, "
+				+ Runtime.getRuntime().availableProcessors() + " cores, us per gesture");
+		for (final boolean dtw : new boolean[] { false, true }) {
+			int changed = 0;
+			for (ArrayList<Vector3d> g : gestures) {
+				String nearest = (dtw ? recognizer.recognizeDtw(g, false)
+						: recognizer.recognize(g, false)).getShape();
+				if (!nearest.equals(recognizer.recognizeAllSpeeds(g, dtw, false).getShape())) {
+					changed++;
+				}
+			}
+			long nearest = Bench.best(new Bench.Task() {
+				public double run() {
+					double sum = 0;
+					for (ArrayList<Vector3d> g : gestures) {
+						sum += (dtw ? recognizer.recognizeDtw(g, false)
+								: recognizer.recognize(g, false)).getAccuracy();
+					}
+					return sum;
+				}
+			});
+			long fused = Bench.best(new Bench.Task() {
+				public double run() {
+					double sum = 0;
+					for (ArrayList<Vector3d> g : gestures) {
+						sum += recognizer.recognizeAllSpeeds(g, dtw, false).getAccuracy();
+					}
+					return sum;
+				}
+			});
+			System.out.println(String.format(
+					"  %-11s nearest bucket %6.2f  all buckets %6.2f  shape changed %d",
+					dtw ? "dtw" : "speed model", nearest / 1000.0 / GESTURES,
+					fused / 1000.0 / GESTURES, changed));
+		}
+	}
+}
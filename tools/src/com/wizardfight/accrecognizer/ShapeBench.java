@@ -0,0 +1,90 @@
+package com.wizardfight.accrecognizer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.wizardfight.components.Bench;
+import com.wizardfight.components.Vector3d;
+
+/*
+ * Speed model matching with full scores (recognize, needed for the
+ * density) against early abandoning (recognizeShape), and DTW matching
+ * with and without LB_Keogh pruning. Also checks the speed model
+ * methods, and the two DTW runs, find the same shape.
+ *   ShapeBench [path to res/raw]
+ */
+public class ShapeBench {
+	private static final int GESTURES = 500;
+
+	public static void main(String[] args) throws Exception {
+		File dir = Bench.rawDir(args);
+		final AccRecognizer recognizer = BenchGestures.readRecognizer(dir);
+		final ArrayList<ArrayList<Vector3d>> gestures =
+				BenchGestures.make(dir, GESTURES, new Random(42));
+
+		int mismatches = 0;
+		for (ArrayList<Vector3d> g : gestures) {
+			if (!recognizer.recognize(g, false).getShape().equals(recognizer.recognizeShape(g))) {
+				mismatches++;
+			}
+		}
+
+		long full = Bench.best(new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (ArrayList<Vector3d> g : gestures) {
+					sum += recognizer.recognize(g, false).getShape().length();
+				}
+				return sum;
+			}
+		});
+		long shape = Bench.best(new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (ArrayList<Vector3d> g : gestures) {
+					sum += recognizer.recognizeShape(g).length();
+				}
+				return sum;
+			}
+		});
+
+		int dtwMismatches = 0;
+		for (ArrayList<Vector3d> g : gestures) {
+			if (!recognizer.recognizeDtw(g, false, true).getShape()
+					.equals(recognizer.recognizeDtw(g, false, false).getShape())) {
+				dtwMismatches++;
+			}
+		}
+		long dtw = Bench.best(new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (ArrayList<Vector3d> g : gestures) {
+					sum += recognizer.recognizeDtw(g, false, true).getShape().length();
+				}
+				return sum;
+			}
+		});
+		long dtwFull = Bench.best(new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (ArrayList<Vector3d> g : gestures) {
+					sum += recognizer.recognizeDtw(g, false, false).getShape().length();
+				}
+				return sum;
+			}
+		});
+
+		System.out.println(GESTURES + " gestures, us per gesture");
+		print("recognize", full);
+		print("recognizeShape", shape);
+		System.out.println("  different shapes: " + mismatches);
+		print("dtw, LB_Keogh", dtw);
+		print("dtw, no LB_Keogh", dtwFull);
+		System.out.println("  different dtw shapes: " + dtwMismatches);
+	}
+
+	private static void print(String name, long time) {
+		System.out.println(String.format("  %-17s %6.2f", name, time / 1000.0 / GESTURES));
+	}
+}
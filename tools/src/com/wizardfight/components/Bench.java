@@ -0,0 +1,54 @@
+package com.wizardfight.components;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/*
+ * Timing helper of the desktop benchmarks. A task is run until the JIT
+ * has compiled it, then the fastest of several rounds is kept.
+ */
+public class Bench {
+	private static final int WARM_UP_ROUNDS = 5;
+	private static final int ROUNDS = 10;
+	// results of the tasks, so the JIT can't drop the work
+	public static volatile double sink;
+
+	public interface Task {
+		double run();
+	}
+
+	/*
+	 * Best time of one run of the task, ns
+	 */
+	public static long best(Task task) {
+		for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+			sink += task.run();
+		}
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			sink += task.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+
+	/*
+	 * res/raw, or the directory given as the first argument
+	 */
+	public static File rawDir(String[] args) {
+		return new File(args.length > 0 ? args[0] : "res/raw");
+	}
+
+	public static ByteBuffer readModel(File dir, String name) throws IOException {
+		InputStream in = new FileInputStream(new File(dir, name));
+		try {
+			return BinaryModel.read(in);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.wizardfight.components;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import com.wizardfight.accrecognizer.AccRecognizer;
+import com.wizardfight.recognition.HMM;
+import com.wizardfight.recognition.KMeansQuantizer;
+
+/*
+ * Desktop tool that converts the serialized models in res/raw into
+ * the flat binary files loaded by the recognizers. The files get the
+ * .ogg extension only so that aapt stores them uncompressed, see
+ * BinaryModel.
+ * Usage: ModelConverter [path to res/raw]
+ */
+public class ModelConverter {
+
+	public static void main(String[] args) throws Exception {
+		File dir = new File(args.length > 0 ? args[0] : "res/raw");
+
+		KMeansQuantizer quantizer = (KMeansQuantizer) readObject(
+				new File(dir, "hmm_quantizer.ser"));
+		DataOutputStream out = openOutput(new File(dir, "hmm_quantizer_flat.ogg"));
+		quantizer.writeTo(out);
+		out.close();
+
+		HMM hmm = (HMM) readObject(new File(dir, "hmm_model.ser"));
+		out = openOutput(new File(dir, "hmm_model_flat.ogg"));
+		hmm.writeTo(out);
+		out.close();
+
+		AccRecognizer acc = (AccRecognizer) readObject(new File(dir, "acc_model.ser"));
+		out = openOutput(new File(dir, "acc_model_flat.ogg"));
+		acc.writeTo(out);
+		out.close();
+
+		System.out.println("models converted in " + dir);
+	}
+
+	private static Object readObject(File f) throws IOException, ClassNotFoundException {
+		ObjectInputStream is = new ObjectInputStream(new FileInputStream(f));
+		try {
+			return is.readObject();
+		} finally {
+			is.close();
+		}
+	}
+
+	private static DataOutputStream openOutput(File f) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+	}
+}
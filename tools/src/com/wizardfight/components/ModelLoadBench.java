@@ -0,0 +1,106 @@
+package com.wizardfight.components;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+
+import com.wizardfight.accrecognizer.AccRecognizer;
+import com.wizardfight.recognition.HMM;
+import com.wizardfight.recognition.KMeansQuantizer;
+
+/*
+ * Time to load the three recognition models from the serialized .ser
+ * files and from the flat binary files. Files are read into memory
+ * first, so only decoding is timed. The first load of each format is
+ * what the app pays on start, later ones show the decoding cost
+ * once the JIT has compiled it.
+ *   ModelLoadBench [path to res/raw]
+ */
+public class ModelLoadBench {
+	private static final String[] SERIALIZED = {
+		"hmm_quantizer.ser", "hmm_model.ser", "acc_model.ser"
+	};
+	private static final String[] FLAT = {
+		"hmm_quantizer_flat.ogg", "hmm_model_flat.ogg", "acc_model_flat.ogg"
+	};
+
+	public static void main(String[] args) throws Exception {
+		File dir = Bench.rawDir(args);
+		final byte[][] serialized = readAll(dir, SERIALIZED);
+		final byte[][] flat = readAll(dir, FLAT);
+		System.out.println("bytes: serialized " + total(serialized) + ", flat " + total(flat));
+
+		// load the model classes, so neither format pays for that
+		Class.forName(KMeansQuantizer.class.getName());
+		Class.forName(HMM.class.getName());
+		Class.forName(AccRecognizer.class.getName());
+
+		Bench.Task serializedTask = new Bench.Task() {
+			public double run() {
+				try {
+					double sum = 0;
+					for (byte[] bytes : serialized) {
+						ObjectInputStream is = new ObjectInputStream(
+								new ByteArrayInputStream(bytes));
+						sum += is.readObject().hashCode();
+						is.close();
+					}
+					return sum;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		Bench.Task flatTask = new Bench.Task() {
+			public double run() {
+				try {
+					return KMeansQuantizer.readFrom(ByteBuffer.wrap(flat[0])).getNumClusters()
+							+ HMM.readFrom(ByteBuffer.wrap(flat[1])).hashCode()
+							+ AccRecognizer.readFrom(ByteBuffer.wrap(flat[2])).hashCode();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+
+		long serializedFirst = once(serializedTask);
+		long flatFirst = once(flatTask);
+		long serializedBest = Bench.best(serializedTask);
+		long flatBest = Bench.best(flatTask);
+		System.out.println(String.format("  serialized  first %6.2f ms  best %6.2f ms",
+				serializedFirst / 1e6, serializedBest / 1e6));
+		System.out.println(String.format("  flat        first %6.2f ms  best %6.2f ms",
+				flatFirst / 1e6, flatBest / 1e6));
+	}
+
+	private static long once(Bench.Task task) {
+		long start = System.nanoTime();
+		Bench.sink += task.run();
+		return System.nanoTime() - start;
+	}
+
+	private static byte[][] readAll(File dir, String[] names) throws IOException {
+		byte[][] all = new byte[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			InputStream in = new FileInputStream(new File(dir, names[i]));
+			try {
+				all[i] = BinaryModel.read(in).array();
+			} finally {
+				in.close();
+			}
+		}
+		return all;
+	}
+
+	private static int total(byte[][] all) {
+		int n = 0;
+		for (byte[] bytes : all) {
+			n += bytes.length;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,116 @@
+package com.wizardfight.components;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Resizing a recorded gesture to a model speed: the list resize as it
+ * was before the array overloads, Vector3d.resize as it is now, and the
+ * resize into x, y, z arrays used by the speed models. Also checks all
+ * three give the same values.
+ *   ResizeBench
+ */
+public class ResizeBench {
+	private static final int GESTURES = 1000;
+	private static final int LENGTH = 180;
+	private static final int SIZE = 50;
+
+	public static void main(String[] args) {
+		Random random = new Random(3);
+		final ArrayList<ArrayList<Vector3d>> gestures = new ArrayList<ArrayList<Vector3d>>();
+		for (int g = 0; g < GESTURES; g++) {
+			ArrayList<Vector3d> gesture = new ArrayList<Vector3d>(LENGTH);
+			for (int i = 0; i < LENGTH; i++) {
+				gesture.add(new Vector3d(random.nextGaussian() * 8,
+						random.nextGaussian() * 8, random.nextGaussian() * 8));
+			}
+			gestures.add(gesture);
+		}
+		final double[] x = new double[SIZE];
+		final double[] y = new double[SIZE];
+		final double[] z = new double[SIZE];
+
+		int mismatches = 0;
+		for (ArrayList<Vector3d> g : gestures) {
+			ArrayList<Vector3d> old = oldResize(g, SIZE);
+			ArrayList<Vector3d> list = Vector3d.resize(g, SIZE);
+			Vector3d.resize(g, SIZE, x, y, z);
+			for (int i = 0; i < SIZE; i++) {
+				Vector3d o = old.get(i);
+				if (!same(o, list.get(i)) || !same(o, new Vector3d(x[i], y[i], z[i]))) {
+					mismatches++;
+				}
+			}
+		}
+
+		long old = Bench.best(new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (ArrayList<Vector3d> g : gestures) {
+					sum += oldResize(g, SIZE).get(SIZE - 1).x;
+				}
+				return sum;
+			}
+		});
+		long list = Bench.best(new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (ArrayList<Vector3d> g : gestures) {
+					sum += Vector3d.resize(g, SIZE).get(SIZE - 1).x;
+				}
+				return sum;
+			}
+		});
+		long arrays = Bench.best(new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (ArrayList<Vector3d> g : gestures) {
+					Vector3d.resize(g, SIZE, x, y, z);
+					sum += x[SIZE - 1];
+				}
+				return sum;
+			}
+		});
+
+		System.out.println(GESTURES + " gestures, " + LENGTH + " -> " + SIZE
+				+ " points, ns per gesture");
+		System.out.println("  old list resize   " + old / GESTURES);
+		System.out.println("  list resize       " + list / GESTURES);
+		System.out.println("  resize to arrays  " + arrays / GESTURES);
+		System.out.println("  different points: " + mismatches);
+	}
+
+	private static boolean same(Vector3d a, Vector3d b) {
+		return Double.doubleToLongBits(a.x) == Double.doubleToLongBits(b.x)
+				&& Double.doubleToLongBits(a.y) == Double.doubleToLongBits(b.y)
+				&& Double.doubleToLongBits(a.z) == Double.doubleToLongBits(b.z);
+	}
+
+	/*
+	 * Vector3d.resize before the array overloads
+	 */
+	static ArrayList<Vector3d> oldResize(ArrayList<Vector3d> a, int size) {
+		ArrayList<Vector3d> s = new ArrayList<Vector3d>();
+		double step = a.size() / (double) (size);
+		for (int i = 0; i < size; i++) {
+			s.add(oldResizeItem(a, step * i));
+		}
+		return s;
+	}
+
+	private static Vector3d oldResizeItem(List<Vector3d> a, double i) {
+		if (((i == ((int) i))))
+			return a.get((int) i);
+		if (i + 1 >= a.size())
+			return a.get(a.size() - 1);
+		double fPart = i % 1;
+		double x = a.get((int) i).x + (a.get((int) i + 1).x - a.get((int) i).x)
+				* fPart;
+		double y = a.get((int) i).y + (a.get((int) i + 1).y - a.get((int) i).y)
+				* fPart;
+		double z = a.get((int) i).z + (a.get((int) i + 1).z - a.get((int) i).z)
+				* fPart;
+		return new Vector3d(x, y, z);
+	}
+}
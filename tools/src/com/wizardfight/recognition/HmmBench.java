@@ -0,0 +1,222 @@
+package com.wizardfight.recognition;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.wizardfight.accrecognizer.BenchGestures;
+import com.wizardfight.components.Bench;
+import com.wizardfight.components.Vector3d;
+
+/*
+ * Scores noisy gestures built from the acc shape templates, quantized
+ * like Recognizer does, with the full-matrix forward algorithm, which
+ * the flat tables replaced, with HiddenMarkovModel.predict and with
+ * Viterbi decoding. Also counts, for every shape, the gestures both
+ * decodings put into the same class.
+ *   HmmBench [path to res/raw]
+ */
+public class HmmBench {
+	private static final int SEQUENCES = 700;
+
+	public static void main(String[] args) throws Exception {
+		File dir = Bench.rawDir(args);
+		// the serialized model keeps the nested tables as well as the flat ones
+		final HMM hmm = readSerialized(new File(dir, "hmm_model.ser"));
+		final int numModels = hmm.getNumModels();
+		KMeansQuantizer quantizer = KMeansQuantizer.readFrom(
+				Bench.readModel(dir, "hmm_quantizer_flat.ogg"));
+		ArrayList<String> shapes = new ArrayList<String>(SEQUENCES);
+		ArrayList<ArrayList<Vector3d>> gestures =
+				BenchGestures.make(dir, SEQUENCES, new Random(1), shapes);
+		final int[][] sequences = new int[SEQUENCES][];
+		int observations = 0;
+		for (int s = 0; s < SEQUENCES; s++) {
+			sequences[s] = quantize(quantizer, gestures.get(s));
+			observations += sequences[s].length * numModels;
+		}
+		final HiddenMarkovModel.Work work = new HiddenMarkovModel.Work();
+
+		int mismatches = 0;
+		for (int[] obs : sequences) {
+			for (int k = 0; k < numModels; k++) {
+				HiddenMarkovModel m = hmm.getModel(k);
+				if (Double.doubleToLongBits(fullMatrixForward(m, obs))
+						!= Double.doubleToLongBits(m.predict(obs, obs.length, work))) {
+					mismatches++;
+				}
+			}
+		}
+
+		long full = Bench.best(new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (int[] obs : sequences) {
+					for (int k = 0; k < numModels; k++) {
+						sum += fullMatrixForward(hmm.getModel(k), obs);
+					}
+				}
+				return sum;
+			}
+		});
+		long flat = Bench.best(new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (int[] obs : sequences) {
+					for (int k = 0; k < numModels; k++) {
+						sum += hmm.getModel(k).predict(obs, obs.length, work);
+					}
+				}
+				return sum;
+			}
+		});
+		long viterbi = Bench.best(new Bench.Task() {
+			public double run() {
+				double sum = 0;
+				for (int[] obs : sequences) {
+					for (int k = 0; k < numModels; k++) {
+						sum += hmm.getModel(k).viterbi(obs, obs.length, work);
+					}
+				}
+				return sum;
+			}
+		});
+
+		// gestures and same class with both decodings, per shape
+		TreeMap<String, int[]> agreement = new TreeMap<String, int[]>();
+		HMM.Prediction forwardPrediction = hmm.newPrediction();
+		HMM.Prediction viterbiPrediction = hmm.newPrediction();
+		for (int s = 0; s < SEQUENCES; s++) {
+			int[] obs = sequences[s];
+			hmm.setDecoding(HMM.Decoding.FORWARD);
+			hmm.predict(forwardPrediction, obs, obs.length);
+			hmm.setDecoding(HMM.Decoding.VITERBI);
+			hmm.predict(viterbiPrediction, obs, obs.length);
+			int[] counts = agreement.get(shapes.get(s));
+			if (counts == null) {
+				counts = new int[2];
+				agreement.put(shapes.get(s), counts);
+			}
+			counts[0]++;
+			if (forwardPrediction.getPredictedClassLabel()
+					== viterbiPrediction.getPredictedClassLabel()) {
+				counts[1]++;
+			}
+		}
+
+		System.out.println(SEQUENCES + " template gestures of " + BenchGestures.MIN_LENGTH
+				+ "-" + BenchGestures.MAX_LENGTH + " samples, " + numModels + " class models");
+		print("full matrix forward", full, observations);
+		print("flat forward", flat, observations);
+		print("viterbi", viterbi, observations);
+		System.out.println("  bit-different distances: " + mismatches);
+		System.out.println("  same class with viterbi:");
+		int same = 0;
+		for (Map.Entry<String, int[]> e : agreement.entrySet()) {
+			int[] counts = e.getValue();
+			same += counts[1];
+			System.out.println(String.format("    %-10s %3d/%d", e.getKey(), counts[1], counts[0]));
+		}
+		System.out.println(String.format("    %-10s %3d/%d", "all", same, SEQUENCES));
+	}
+
+	private static int[] quantize(KMeansQuantizer quantizer, ArrayList<Vector3d> gesture) {
+		final int n = gesture.size();
+		double[] samples = new double[3 * n];
+		for (int j = 0, c = 0; j < n; j++) {
+			Vector3d v = gesture.get(j);
+			samples[c++] = v.x;
+			samples[c++] = v.y;
+			samples[c++] = v.z;
+		}
+		int[] obs = new int[n];
+		quantizer.quantize(samples, n, obs);
+		return obs;
+	}
+
+	static HMM readSerialized(File f) throws IOException, ClassNotFoundException {
+		ObjectInputStream is = new ObjectInputStream(new FileInputStream(f));
+		try {
+			return (HMM) is.readObject();
+		} finally {
+			is.close();
+		}
+	}
+
+	static void print(String name, long time, int observations) {
+		System.out.println(String.format("  %-20s %6.1f ns/observation", name,
+				(double) time / observations));
+	}
+
+	/*
+	 * Draws a state path from pi and a, and a symbol of every state from b
+	 * (for ParallelBench, which needs sequences of any class count)
+	 */
+	static int[] sample(HiddenMarkovModel m, int length, Random random) {
+		int[] obs = new int[length];
+		int state = draw(m.pi, random);
+		for (int t = 0; t < length; t++) {
+			obs[t] = draw(m.b[state], random);
+			state = draw(m.a[state], random);
+		}
+		return obs;
+	}
+
+	private static int draw(double[] p, Random random) {
+		double u = random.nextDouble();
+		for (int i = 0; i < p.length - 1; i++) {
+			u -= p[i];
+			if (u < 0) return i;
+		}
+		return p.length - 1;
+	}
+
+	/*
+	 * The forward pass as it was before the flat tables: a T x N alpha
+	 * matrix and a scaling vector per call, walking the nested arrays
+	 */
+	static double fullMatrixForward(HiddenMarkovModel m, int[] obs) {
+		final double[] pi = m.pi;
+		final double[][] a = m.a;
+		final double[][] b = m.b;
+		final int N = a.length;
+		final int T = obs.length;
+		double[][] alpha = new double[T][N];
+		double[] c = new double[T];
+
+		for (int i = 0; i < N; i++) {
+			alpha[0][i] = pi[i] * b[i][obs[0]];
+			c[0] += alpha[0][i];
+		}
+		c[0] = 1.0 / c[0];
+		for (int i = 0; i < N; i++) {
+			alpha[0][i] *= c[0];
+		}
+
+		for (int t = 1; t < T; t++) {
+			for (int j = 0; j < N; j++) {
+				alpha[t][j] = 0.0;
+				for (int i = 0; i < N; i++) {
+					alpha[t][j] += alpha[t - 1][i] * a[i][j];
+				}
+				alpha[t][j] *= b[j][obs[t]];
+				c[t] += alpha[t][j];
+			}
+			c[t] = 1.0 / c[t];
+			for (int j = 0; j < N; j++) {
+				alpha[t][j] *= c[t];
+			}
+		}
+
+		double loglikelihood = 0.0;
+		for (int t = 0; t < T; t++) {
+			loglikelihood += Math.log(c[t]);
+		}
+		return -loglikelihood;
+	}
+}
@@ -0,0 +1,90 @@
+package com.wizardfight.recognition;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.wizardfight.components.Bench;
+import com.wizardfight.components.BinaryModel;
+
+/*
+ * Finds how many class models it takes for HMM.setParallel(true) to
+ * pay off. The shipped models are repeated to get bigger spell sets,
+ * and one predict() is timed with and without the class pool.
+ *   ParallelBench [path to res/raw]
+ */
+public class ParallelBench {
+	private static final int[] REPEATS = { 1, 2, 4, 8, 16 };
+	private static final int SEQUENCES = 50;
+	private static final int LENGTH = 80;
+
+	public static void main(String[] args) throws Exception {
+		HMM shipped = HmmBench.readSerialized(new File(Bench.rawDir(args), "hmm_model.ser"));
+		final int[][] sequences = new int[SEQUENCES][];
+		Random random = new Random(1);
+		for (int s = 0; s < SEQUENCES; s++) {
+			sequences[s] = HmmBench.sample(shipped.getModel(s % shipped.getNumModels()),
+					LENGTH, random);
+		}
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println(cores + " cores, " + LENGTH + " observations per gesture");
+		if (cores < 2) {
+			System.out.println("  predict() never uses the pool on one core");
+			return;
+		}
+		int crossover = -1;
+		for (int repeat : REPEATS) {
+			final HMM hmm = repeat(shipped, repeat);
+			final HMM.Prediction prediction = hmm.newPrediction();
+			Bench.Task task = new Bench.Task() {
+				public double run() {
+					double sum = 0;
+					for (int[] obs : sequences) {
+						hmm.predict(prediction, obs, obs.length);
+						sum += prediction.getPredictedClassLabel();
+					}
+					return sum;
+				}
+			};
+			hmm.setParallel(false);
+			long sequential = Bench.best(task) / SEQUENCES;
+			hmm.setParallel(true);
+			long parallel = Bench.best(task) / SEQUENCES;
+			System.out.println(String.format("  %3d classes  sequential %7.1f us  parallel %7.1f us",
+					hmm.getNumModels(), sequential / 1000.0, parallel / 1000.0));
+			if (crossover < 0 && parallel < sequential) {
+				crossover = hmm.getNumModels();
+			}
+		}
+		System.out.println(crossover < 0 ? "  parallel never faster"
+				: "  parallel faster from " + crossover + " classes");
+		System.exit(0);
+	}
+
+	/*
+	 * A model with the class models of hmm repeated the given number of times
+	 */
+	static HMM repeat(HMM hmm, int times) throws IOException {
+		final int n = hmm.getNumModels() * times;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		BinaryModel.writeHeader(out, BinaryModel.HMM);
+		out.writeInt(n);
+		out.writeBoolean(false);
+		int[] labels = new int[n];
+		for (int k = 0; k < n; k++) {
+			labels[k] = k + 1;
+		}
+		BinaryModel.writeInts(out, labels);
+		out.writeInt(0);
+		for (int k = 0; k < n; k++) {
+			hmm.getModel(k % hmm.getNumModels()).writeTo(out);
+		}
+		out.close();
+		return HMM.readFrom(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+}
@@ -0,0 +1,77 @@
+package com.wizardfight.recognition;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.wizardfight.components.Bench;
+import com.wizardfight.components.BinaryModel;
+
+/*
+ * Nearest-cluster search of KMeansQuantizer with a plain scan and with
+ * the k-d tree, on the shipped quantizer and on random ones with more
+ * clusters. Also checks both give the same indices.
+ *   QuantizerBench [path to res/raw]
+ */
+public class QuantizerBench {
+	private static final int[] RANDOM_CLUSTERS = { 20, 48, 64, 256 };
+	private static final int SAMPLES = 100000;
+	// spread of the samples and random clusters, about that of the
+	// accelerometer values in m/s^2
+	private static final double SPREAD = 8;
+
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(5);
+		final double[] samples = new double[3 * SAMPLES];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = random.nextGaussian() * SPREAD;
+		}
+
+		System.out.println(SAMPLES + " samples, ns per sample");
+		run("shipped", KMeansQuantizer.readFrom(
+				Bench.readModel(Bench.rawDir(args), "hmm_quantizer_flat.ogg")), samples);
+		for (int n : RANDOM_CLUSTERS) {
+			run("random", randomQuantizer(n, random), samples);
+		}
+	}
+
+	private static void run(String name, final KMeansQuantizer q, final double[] samples) {
+		final int[] scanned = new int[SAMPLES];
+		final int[] searched = new int[SAMPLES];
+		q.dropIndex();
+		long scan = Bench.best(new Bench.Task() {
+			public double run() {
+				q.quantize(samples, SAMPLES, scanned);
+				return scanned[SAMPLES - 1];
+			}
+		});
+		q.buildIndex();
+		long tree = Bench.best(new Bench.Task() {
+			public double run() {
+				q.quantize(samples, SAMPLES, searched);
+				return searched[SAMPLES - 1];
+			}
+		});
+		System.out.println(String.format("  %-8s %3d clusters  scan %5d  k-d tree %5d  equal %b",
+				name, q.getNumClusters(), scan / SAMPLES, tree / SAMPLES,
+				Arrays.equals(scanned, searched)));
+	}
+
+	private static KMeansQuantizer randomQuantizer(int n, Random random) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		BinaryModel.writeHeader(out, BinaryModel.QUANTIZER);
+		out.writeInt(n);
+		out.writeInt(3);
+		for (int k = 0; k < n; k++) {
+			for (int i = 0; i < 3; i++) {
+				out.writeDouble(random.nextGaussian() * SPREAD);
+			}
+		}
+		out.close();
+		return KMeansQuantizer.readFrom(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+}
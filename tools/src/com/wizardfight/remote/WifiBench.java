@@ -0,0 +1,125 @@
+package com.wizardfight.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.wizardfight.FightMessage;
+import com.wizardfight.FightMessage.FightAction;
+import com.wizardfight.FightMessage.Target;
+import com.wizardfight.FightMessageCodec;
+
+/*
+ * Bytes and time per fight message on the pc connection: the binary
+ * frames of WifiService against the object stream it replaced
+ * (writeObject of a fresh message, flushed, never reset). Every message
+ * gets its own frame, as when the game sends them one at a time.
+ *   WifiBench [messages]
+ */
+public class WifiBench {
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+		FightMessage[] messages = randomMessages(count, new Random(1));
+
+		System.out.println(count + " fight messages, best of " + ROUNDS + " rounds");
+		long best = Long.MAX_VALUE;
+		int size = 0;
+		for (int r = 0; r < ROUNDS; r++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(64 * count);
+			long start = System.nanoTime();
+			writeObjects(messages, out);
+			best = Math.min(best, System.nanoTime() - start);
+			size = out.size();
+		}
+		print("object stream", size, best, count);
+
+		best = Long.MAX_VALUE;
+		byte[] frames = null;
+		for (int r = 0; r < ROUNDS; r++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(16 * count);
+			long start = System.nanoTime();
+			writeFrames(messages, out);
+			best = Math.min(best, System.nanoTime() - start);
+			frames = out.toByteArray();
+		}
+		print("binary frames", frames.length, best, count);
+		check(messages, frames);
+	}
+
+	private static void print(String name, int size, long time, int count) {
+		System.out.println(String.format("  %-14s %5.1f bytes/msg %6d ns/msg",
+				name, (double) size / count, time / count));
+	}
+
+	private static FightMessage[] randomMessages(int count, Random random) {
+		Target[] targets = Target.values();
+		FightAction[] actions = FightAction.values();
+		FightMessage[] messages = new FightMessage[count];
+		for (int i = 0; i < count; i++) {
+			FightMessage m = new FightMessage(targets[random.nextInt(targets.length)],
+					actions[random.nextInt(actions.length)], random.nextInt(6) - 1);
+			m.mHealth = random.nextInt(201);
+			m.mMana = random.nextInt(201);
+			m.mIsBotMessage = random.nextInt(10) == 0;
+			messages[i] = m;
+		}
+		return messages;
+	}
+
+	private static void writeObjects(FightMessage[] messages, ByteArrayOutputStream out)
+			throws IOException {
+		ObjectOutputStream os = new ObjectOutputStream(out);
+		for (FightMessage m : messages) {
+			FightMessage copy = new FightMessage(m.mTarget, m.mAction, m.mParam);
+			copy.mHealth = m.mHealth;
+			copy.mMana = m.mMana;
+			copy.mIsBotMessage = m.mIsBotMessage;
+			os.writeObject(copy);
+			os.flush();
+		}
+	}
+
+	/*
+	 * Same stream as WifiService.Worker writes, without the player name
+	 */
+	private static void writeFrames(FightMessage[] messages, ByteArrayOutputStream out) {
+		FightMessageCodec encoder = new FightMessageCodec();
+		ByteBuffer frame = ByteBuffer.allocate(
+				WifiProtocol.FRAME_HEADER + WifiProtocol.MAX_FRAME_BODY);
+		out.write(WifiProtocol.MAGIC, 0, WifiProtocol.MAGIC.length);
+		out.write(WifiProtocol.VERSION);
+		for (FightMessage m : messages) {
+			frame.clear();
+			frame.position(2);
+			frame.put((byte) WifiProtocol.KIND_FIGHT_MESSAGES);
+			encoder.encode(m, frame);
+			frame.putShort(0, (short) (frame.position() - 2));
+			out.write(frame.array(), 0, frame.position());
+		}
+	}
+
+	private static void check(final FightMessage[] messages, byte[] frames) throws IOException {
+		final int[] read = { 0, 0 };
+		new WifiReceiver(new ByteArrayInputStream(frames), new WifiReceiver.Listener() {
+			public void onPlayerName(String name) {
+			}
+			public void onFightMessage(FightMessage msg) {
+				FightMessage m = messages[read[0]++];
+				if (msg.mTarget != m.mTarget || msg.mAction != m.mAction
+						|| msg.mParam != m.mParam || msg.mHealth != m.mHealth
+						|| msg.mMana != m.mMana || msg.mIsBotMessage != m.mIsBotMessage) {
+					read[1]++;
+				}
+			}
+			public void onWifiMessage(WifiMessage msg) {
+			}
+		}).run();
+		System.out.println("  decoded " + read[0] + "/" + messages.length
+				+ ", mismatches " + read[1]);
+	}
+}
@@ -0,0 +1,145 @@
+package com.wizardfight.remote;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import com.wizardfight.FightMessage;
+import com.wizardfight.FightMessageCodec;
+
+/*
+ * Reference pc side of the connection, reads the stream written by
+ * WifiService. Its main() prints everything the phones send, see
+ * tools/README.md for how to run it.
+ */
+public class WifiReceiver {
+	/*
+	 * Messages are passed on the reading thread. Fight messages are
+	 * recycled after the call, a listener that keeps one copies it.
+	 */
+	public interface Listener {
+		void onPlayerName(String name);
+		void onFightMessage(FightMessage msg);
+		void onWifiMessage(WifiMessage msg);
+	}
+
+	private static final WifiMessage[] WIFI_MESSAGES = WifiMessage.values();
+
+	private final DataInputStream mIn;
+	private final Listener mListener;
+	private final FightMessageCodec mDecoder = new FightMessageCodec();
+	private final byte[] mBuffer = new byte[WifiProtocol.MAX_FRAME_BODY];
+	private final ByteBuffer mFrame = ByteBuffer.wrap(mBuffer);
+
+	public WifiReceiver(InputStream in, Listener listener) {
+		mIn = new DataInputStream(in);
+		mListener = listener;
+	}
+
+	/*
+	 * Reads the stream till its end
+	 */
+	public void run() throws IOException {
+		byte[] header = new byte[WifiProtocol.STREAM_HEADER];
+		mIn.readFully(header);
+		for (int i = 0; i < WifiProtocol.MAGIC.length; i++) {
+			if (header[i] != WifiProtocol.MAGIC[i]) {
+				throw new IOException("not a wizard fight stream");
+			}
+		}
+		int version = header[WifiProtocol.MAGIC.length];
+		if (version != WifiProtocol.VERSION) {
+			throw new IOException("unsupported protocol version " + version);
+		}
+
+		while (true) {
+			int length;
+			try {
+				length = mIn.readUnsignedShort();
+			} catch (EOFException e) {
+				return;
+			}
+			if (length < 1 || length > WifiProtocol.MAX_FRAME_BODY + 1) {
+				throw new IOException("bad frame length " + length);
+			}
+			int kind = mIn.readUnsignedByte();
+			mIn.readFully(mBuffer, 0, length - 1);
+			mFrame.clear();
+			mFrame.limit(length - 1);
+			try {
+				readFrame(kind);
+			} catch (BufferUnderflowException e) {
+				throw new IOException("truncated message");
+			}
+		}
+	}
+
+	private void readFrame(int kind) throws IOException {
+		switch (kind) {
+		case WifiProtocol.KIND_PLAYER_NAME:
+			mListener.onPlayerName(new String(mBuffer, 0, mFrame.limit(), "UTF-8"));
+			break;
+		case WifiProtocol.KIND_FIGHT_MESSAGES:
+			while (mFrame.hasRemaining()) {
+				FightMessage msg = mDecoder.decode(mFrame);
+				if (msg != null) {
+					mListener.onFightMessage(msg);
+					msg.recycle();
+				}
+			}
+			break;
+		case WifiProtocol.KIND_WIFI_MESSAGE:
+			while (mFrame.hasRemaining()) {
+				int ordinal = mFrame.get() & 0xFF;
+				if (ordinal < WIFI_MESSAGES.length) {
+					mListener.onWifiMessage(WIFI_MESSAGES[ ordinal ]);
+				}
+			}
+			break;
+		default:
+			// written by a newer version
+			break;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : WifiProtocol.PORT;
+		ServerSocket server = new ServerSocket(port);
+		System.out.println("listening on port " + port);
+		while (true) {
+			final Socket socket = server.accept();
+			new Thread() {
+				public void run() {
+					final String from = socket.getInetAddress().getHostAddress();
+					try {
+						new WifiReceiver(socket.getInputStream(), new Listener() {
+							public void onPlayerName(String name) {
+								System.out.println(from + " player " + name);
+							}
+							public void onFightMessage(FightMessage msg) {
+								System.out.println(from + " " + msg);
+							}
+							public void onWifiMessage(WifiMessage msg) {
+								System.out.println(from + " " + msg);
+							}
+						}).run();
+						System.out.println(from + " disconnected");
+					} catch (IOException e) {
+						e.printStackTrace();
+					} finally {
+						try {
+							socket.close();
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}.start();
+		}
+	}
+}